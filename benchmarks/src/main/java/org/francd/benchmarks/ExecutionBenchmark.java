@@ -0,0 +1,126 @@
+package org.francd.benchmarks;
+
+import graphql.ExecutionResult;
+import org.francd.AsyncGraphQLRuntime;
+import org.francd.GraphQLRuntime;
+import org.francd.cache.EntityCaches;
+import org.francd.db.pool.ConnectionPool;
+import org.francd.executor.FetcherExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Whole executions of representative queries against MondialStandIn: parsing (cached), validation (cached),
+ * fetchers, DataLoaders, row mapping, scalars and result building.
+ * The entity caches are shared by the runtimes, as in the server, so after the warmup the capitals and
+ * provinces come from the caches: this is the steady state of a running server.
+ *
+ * Each execution must succeed: an error would make a cheap benchmark out of an exception path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class ExecutionBenchmark {
+
+    // 34 countries, each with its capital and the province of the capital
+    static final String COUNTRIES_WITH_CAPITALS = """
+            query Countries($continent: Continent) {
+                countries(criteria: { continent: $continent }) {
+                    name
+                    population
+                    area
+                    capital {
+                        name
+                        population
+                        geoLocation { latitude longitude }
+                        province { name population area }
+                    }
+                }
+            }
+            """;
+
+    static final String PROVINCES_OF_COUNTRY = """
+            query Provinces($country: String) {
+                provinces(criteria: { country: $country }) {
+                    name
+                    population
+                    area
+                    capital { name population elevation }
+                }
+            }
+            """;
+
+    static final String PLACES = """
+            query Places($name: String) {
+                places(criteria: { name: $name }) {
+                    __typename
+                    name
+                    population
+                }
+            }
+            """;
+
+    private ConnectionPool connectionPool;
+    private FetcherExecutor fetcherExecutor;
+    private GraphQLRuntime runtime;
+    private AsyncGraphQLRuntime asyncRuntime;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        connectionPool = MondialStandIn.create("execution");
+        fetcherExecutor = FetcherExecutor.virtualThreads("benchmark-fetcher", 256);
+        EntityCaches entityCaches = EntityCaches.defaults();
+        runtime = new GraphQLRuntime(connectionPool, entityCaches, fetcherExecutor);
+        asyncRuntime = new AsyncGraphQLRuntime(connectionPool, entityCaches, fetcherExecutor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fetcherExecutor.close();
+        connectionPool.close();
+    }
+
+    @Benchmark
+    public ExecutionResult countriesWithCapitals() {
+        return checked(runtime.execute(COUNTRIES_WITH_CAPITALS, Map.of("continent", "Europe"), null, Set.of()));
+    }
+
+    @Benchmark
+    public ExecutionResult countriesWithCapitalsAsyncRuntime() {
+        return checked(asyncRuntime.executeAsync(COUNTRIES_WITH_CAPITALS, Map.of("continent", "Europe"), null, null, Set.of()).join());
+    }
+
+    @Benchmark
+    public ExecutionResult provincesOfCountry() {
+        return checked(runtime.execute(PROVINCES_OF_COUNTRY, Map.of("country", MondialStandIn.countryName(42)), null, Set.of()));
+    }
+
+    @Benchmark
+    public ExecutionResult places() {
+        return checked(runtime.execute(PLACES, Map.of("name", "City042*"), null, Set.of()));
+    }
+
+    static ExecutionResult checked(ExecutionResult result) {
+        if (!result.getErrors().isEmpty()) {
+            throw new IllegalStateException("Benchmark query failed: " + result.getErrors());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package org.francd.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.ExecutionResult;
+import org.francd.GraphQLRuntime;
+import org.francd.cache.EntityCaches;
+import org.francd.db.pool.ConnectionPool;
+import org.francd.executor.FetcherExecutor;
+import org.francd.http.ExecutionResultWriter;
+import org.francd.http.GraphQLRequest;
+import org.francd.http.GraphQLRequestDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Request decoding and result encoding of GraphQLHandler, each next to the way it was done before
+ * (Reader + readValue, writeValueAsString of the specification map). Run with -prof gc and compare
+ * gc.alloc.rate.norm: the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class HttpCodecBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final GraphQLRequestDecoder decoder = new GraphQLRequestDecoder(mapper, GraphQLRequestDecoder.DEFAULT_MAX_BODY_BYTES);
+    private final ExecutionResultWriter writer = new ExecutionResultWriter(mapper);
+
+    private byte[] requestBody;
+    private ExecutionResult result;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        requestBody = mapper.writeValueAsBytes(Map.of(
+                "query", ExecutionBenchmark.COUNTRIES_WITH_CAPITALS,
+                "operationName", "Countries",
+                "variables", Map.of("continent", "Europe")));
+
+        // a real result: 34 countries with their capitals
+        try (ConnectionPool connectionPool = MondialStandIn.create("codec");
+             FetcherExecutor fetcherExecutor = FetcherExecutor.virtualThreads("benchmark-fetcher", 64)) {
+            GraphQLRuntime runtime = new GraphQLRuntime(connectionPool, EntityCaches.defaults(), fetcherExecutor);
+            result = ExecutionBenchmark.checked(runtime.execute(ExecutionBenchmark.COUNTRIES_WITH_CAPITALS,
+                    Map.of("continent", "Europe"), null, Set.of()));
+        }
+    }
+
+    @Benchmark
+    public GraphQLRequest decodeRequest() throws IOException {
+        return decoder.parseBatch(requestBody, 0, requestBody.length).requests().getFirst();
+    }
+
+    @Benchmark
+    public GraphQLRequest decodeRequestWithReader() throws IOException {
+        return mapper.readValue(new InputStreamReader(new ByteArrayInputStream(requestBody), StandardCharsets.UTF_8),
+                GraphQLRequest.class);
+    }
+
+    @Benchmark
+    public void writeResult() throws IOException {
+        writer.write(result, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public byte[] writeResultAsString() throws IOException {
+        return mapper.writeValueAsString(result.toSpecification()).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package org.francd.benchmarks;
+
+import org.francd.db.Mapping;
+import org.francd.model.City;
+import org.francd.model.Country;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Row mapping alone: the result sets are positioned on one row once, then mapped over and over,
+ * so the numbers are the cost of the column lookups and of the conversions, not of the query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class MappingBenchmark {
+
+    private Connection connection;
+    private ResultSet cityRow;
+    private ResultSet countryRow;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = MondialStandIn.create("mapping").getConnection();
+        cityRow = connection.createStatement().executeQuery(
+                "SELECT * FROM city WHERE name = '%s'".formatted(MondialStandIn.cityName(1, 2, 3)));
+        cityRow.next();
+        countryRow = connection.createStatement().executeQuery("""
+                SELECT * FROM country c, encompasses e WHERE c.code = e.country AND c.name = '%s'
+                """.formatted(MondialStandIn.countryName(1)));
+        countryRow.next();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public City cityOf() throws SQLException {
+        return Mapping.cityOf(cityRow);
+    }
+
+    @Benchmark
+    public Country countryOf() throws SQLException {
+        return Mapping.countryOf(countryRow);
+    }
+}
@@ -0,0 +1,215 @@
+package org.francd.benchmarks;
+
+import org.francd.db.pool.ConnectionPool;
+import org.francd.db.pool.ConnectionPoolConfig;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/*
+ * In-memory H2 database (PostgreSQL mode) with the tables and columns of mondial the fetchers use,
+ * filled with generated data of a realistic shape:
+ * COUNTRIES countries spread over the continents, PROVINCES_PER_COUNTRY provinces each,
+ * CITIES_PER_PROVINCE cities in each province. The first city of a province is its capital,
+ * the capital of the first province is the capital of the country.
+ *
+ * Names are predictable, so that the benchmarks can query them: Country007, Province007-3, City007-3-1.
+ *
+ * The SQL of the fetchers is written for Postgres. Where H2 reads it differently, the connections of the
+ * stand-in translate it (see PostgresDialect): the production SQL never bends to the benchmark.
+ */
+public final class MondialStandIn {
+
+    public static final int COUNTRIES = 200;
+    public static final int PROVINCES_PER_COUNTRY = 8;
+    public static final int CITIES_PER_PROVINCE = 4;
+
+    private static final String[] CONTINENTS = {"Europe", "Asia", "Africa", "SouthAmerica", "NorthAmerica", "Oceania"};
+
+    private static final String SCHEMA = """
+            CREATE TABLE country (name varchar(50) NOT NULL UNIQUE, code varchar(4) PRIMARY KEY, capital varchar(50),
+                province varchar(50), area numeric, population numeric);
+            CREATE TABLE province (name varchar(50), country varchar(4), population numeric, area numeric,
+                capital varchar(50), capprov varchar(50), PRIMARY KEY (name, country));
+            CREATE TABLE city (name varchar(50), country varchar(4), province varchar(50), population numeric,
+                latitude numeric, longitude numeric, elevation numeric, PRIMARY KEY (name, country, province));
+            CREATE TABLE encompasses (country varchar(4), continent varchar(20), percentage numeric,
+                PRIMARY KEY (country, continent));
+            CREATE INDEX city_name ON city (name);
+            CREATE INDEX province_name ON province (name);
+            CREATE INDEX province_capital ON province (capital);
+            """;
+
+    static {
+        try {
+            DriverManager.registerDriver(new PostgresDialect());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private MondialStandIn() {
+    }
+
+    public static String jdbcUrl(String name) {
+        // DB_CLOSE_DELAY=-1: the database lives as long as the JVM, not as long as its last connection
+        return PostgresDialect.URL_PREFIX + "mem:%s;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1".formatted(name);
+    }
+
+    /*
+     * Creates and fills the database "name", then returns a pool of connections to it.
+     */
+    public static ConnectionPool create(String name) throws SQLException {
+        String url = jdbcUrl(name);
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA.split(";")) {
+                    if (!ddl.isBlank()) {
+                        statement.execute(ddl);
+                    }
+                }
+            }
+            fill(connection);
+        }
+        return new ConnectionPool(ConnectionPoolConfig.of(url, "sa", ""));
+    }
+
+    public static String countryName(int country) {
+        return "Country%03d".formatted(country);
+    }
+
+    public static String provinceName(int country, int province) {
+        return "Province%03d-%d".formatted(country, province);
+    }
+
+    public static String cityName(int country, int province, int city) {
+        return "City%03d-%d-%d".formatted(country, province, city);
+    }
+
+    private static void fill(Connection connection) throws SQLException {
+        try (PreparedStatement countries = connection.prepareStatement("INSERT INTO country VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement encompasses = connection.prepareStatement("INSERT INTO encompasses VALUES (?, ?, 100)");
+             PreparedStatement provinces = connection.prepareStatement("INSERT INTO province VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement cities = connection.prepareStatement("INSERT INTO city VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+
+            for (int c = 0; c < COUNTRIES; c++) {
+                String code = "C%03d".formatted(c);
+                int countryPopulation = 0;
+                int countryArea = 0;
+                for (int p = 0; p < PROVINCES_PER_COUNTRY; p++) {
+                    int provincePopulation = 0;
+                    for (int i = 0; i < CITIES_PER_PROVINCE; i++) {
+                        int population = 10_000 + (c * 7_919 + p * 104_729 + i * 1_299_709) % 2_000_000;
+                        provincePopulation += population;
+                        cities.setString(1, cityName(c, p, i));
+                        cities.setString(2, code);
+                        cities.setString(3, provinceName(c, p));
+                        cities.setInt(4, population);
+                        cities.setDouble(5, -60 + (c * 13 + p * 7 + i) % 120);
+                        cities.setDouble(6, -180 + (c * 17 + p * 11 + i) % 360);
+                        cities.setInt(7, (c + p + i) * 37 % 2_500);
+                        cities.addBatch();
+                    }
+                    int area = 1_000 + (c * 31 + p * 97) % 50_000;
+                    countryPopulation += provincePopulation * 2;
+                    countryArea += area;
+                    provinces.setString(1, provinceName(c, p));
+                    provinces.setString(2, code);
+                    provinces.setInt(3, provincePopulation * 2);
+                    provinces.setInt(4, area);
+                    provinces.setString(5, cityName(c, p, 0));
+                    provinces.setString(6, provinceName(c, p));
+                    provinces.addBatch();
+                }
+                countries.setString(1, countryName(c));
+                countries.setString(2, code);
+                countries.setString(3, cityName(c, 0, 0));
+                countries.setString(4, provinceName(c, 0));
+                countries.setInt(5, countryArea);
+                countries.setInt(6, countryPopulation);
+                countries.addBatch();
+                encompasses.setString(1, code);
+                encompasses.setString(2, CONTINENTS[c % CONTINENTS.length]);
+                encompasses.addBatch();
+            }
+            cities.executeBatch();
+            provinces.executeBatch();
+            countries.executeBatch();
+            encompasses.executeBatch();
+        }
+    }
+
+    /*
+     * The H2 driver behind connections that translate what the PostgreSQL mode of H2 doesn't parse:
+     * the array casts of the batch loaders, ?::varchar[] (H2 writes ?::varchar ARRAY).
+     */
+    private static final class PostgresDialect implements Driver {
+
+        static final String URL_PREFIX = "jdbc:mondial-standin:";
+
+        private static final Pattern ARRAY_CAST = Pattern.compile("::(\\w+)\\[]");
+
+        static String translated(String sql) {
+            return ARRAY_CAST.matcher(sql).replaceAll("::$1 ARRAY");
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            Connection h2 = DriverManager.getConnection("jdbc:h2:" + url.substring(URL_PREFIX.length()), info);
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("prepare") && args != null && args[0] instanceof String sql) {
+                            args[0] = translated(sql);
+                        }
+                        try {
+                            return method.invoke(h2, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith(URL_PREFIX);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
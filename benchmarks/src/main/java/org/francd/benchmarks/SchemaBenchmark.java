@@ -0,0 +1,76 @@
+package org.francd.benchmarks;
+
+import graphql.TypeResolutionEnvironment;
+import graphql.execution.TypeResolutionParameters;
+import graphql.language.ObjectTypeDefinition;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import org.francd.GraphQLRuntime;
+import org.francd.PojoClassTypeResolver;
+import org.francd.cache.EntityCaches;
+import org.francd.db.pool.ConnectionPool;
+import org.francd.executor.FetcherExecutor;
+import org.francd.model.City;
+import org.francd.model.GeoCoord;
+import org.francd.model.TypeHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * PojoClassTypeResolver runs for every element of a Place list (places query),
+ * TypeHelper.objectDefinitionOf when a runtime builds its schema.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class SchemaBenchmark {
+
+    private final PojoClassTypeResolver typeResolver = new PojoClassTypeResolver();
+
+    private ConnectionPool connectionPool;
+    private FetcherExecutor fetcherExecutor;
+    private TypeResolutionEnvironment cityEnvironment;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        connectionPool = MondialStandIn.create("schema");
+        fetcherExecutor = FetcherExecutor.virtualThreads("benchmark-fetcher", 64);
+        GraphQLSchema schema = new GraphQLRuntime(connectionPool, EntityCaches.defaults(), fetcherExecutor).schema();
+        City city = new City("Paris", 2249975, new GeoCoord(48.86, 2.35), 28, "Île-de-France");
+        cityEnvironment = TypeResolutionParameters.newParameters()
+                .value(city)
+                .schema(schema)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fetcherExecutor.close();
+        connectionPool.close();
+    }
+
+    @Benchmark
+    public GraphQLObjectType resolvePlaceType() {
+        return typeResolver.getType(cityEnvironment);
+    }
+
+    @Benchmark
+    public ObjectTypeDefinition objectDefinitionOfCity() {
+        return TypeHelper.objectDefinitionOf(City.class);
+    }
+}
@@ -0,0 +1,72 @@
+package org.francd.benchmarks;
+
+import graphql.GraphQLContext;
+import graphql.execution.CoercedVariables;
+import graphql.language.FloatValue;
+import graphql.language.IntValue;
+import graphql.language.StringValue;
+import org.francd.model.Surface;
+import org.francd.model.SurfaceCoercing;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The Surface scalar: serialize() runs once per Country.area of every result,
+ * parseLiteral() once per Surface literal of a query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j2.configurationFile=log4j2-benchmarks.xml")
+public class SurfaceCoercingBenchmark {
+
+    private final SurfaceCoercing coercing = new SurfaceCoercing();
+    private final GraphQLContext context = GraphQLContext.getDefault();
+    private final CoercedVariables variables = CoercedVariables.emptyVariables();
+
+    // what the JDBC driver returns for a numeric column
+    private final BigDecimal area = new BigDecimal("547030");
+    private final Surface surface = new Surface(547030.0, Surface.Unit.KM2);
+    private final StringValue stringLiteral = new StringValue("547030.5 km²");
+    private final IntValue intLiteral = new IntValue(BigInteger.valueOf(547030));
+    private final FloatValue floatLiteral = new FloatValue(new BigDecimal("547030.5"));
+
+    @Benchmark
+    public String serializeBigDecimal() {
+        return coercing.serialize(area, context, Locale.ROOT);
+    }
+
+    @Benchmark
+    public String serializeSurface() {
+        return coercing.serialize(surface, context, Locale.ROOT);
+    }
+
+    @Benchmark
+    public Surface parseStringLiteral() {
+        return coercing.parseLiteral(stringLiteral, variables, context, Locale.ROOT);
+    }
+
+    @Benchmark
+    public Surface parseIntLiteral() {
+        return coercing.parseLiteral(intLiteral, variables, context, Locale.ROOT);
+    }
+
+    @Benchmark
+    public Surface parseFloatLiteral() {
+        return coercing.parseLiteral(floatLiteral, variables, context, Locale.ROOT);
+    }
+}
@@ -1,42 +1,85 @@
 package org.francd;
 
+import graphql.Directives;
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
+import graphql.ExperimentalApi;
 import graphql.GraphQL;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
 import graphql.execution.instrumentation.ChainedInstrumentation;
 import graphql.schema.GraphQLScalarType;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.*;
-import org.dataloader.DataLoaderFactory;
-import org.dataloader.DataLoaderOptions;
 import org.dataloader.DataLoaderRegistry;
 import org.francd.batch.DBCityBatchLoader;
+import org.francd.batch.DBProvinceBatchLoader;
+import org.francd.batch.DBProvincesOfCountryBatchLoader;
+import org.francd.cache.BoundedPersistedQueryCache;
+import org.francd.cache.EntityCaches;
+import org.francd.cache.PreparsedDocumentCache;
+import org.francd.db.routing.RoutingDataSource;
 import org.francd.fetchers.*;
+import org.francd.dispatch.DataLoaderDispatch;
 import org.francd.instrumentation.DataFetcherCounterInstrumentation;
+import org.francd.instrumentation.DataLoaderUsageInstrumentation;
+import org.francd.instrumentation.FieldLatencyInstrumentation;
 import org.francd.instrumentation.LoggingInstrumentation;
+import org.francd.instrumentation.QueryBudget;
+import org.francd.instrumentation.QueryCostInstrumentation;
 import org.francd.model.*;
+import org.francd.search.PlaceIndex;
 
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.sql.Connection;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static graphql.schema.AsyncDataFetcher.async;
 
 public class AsyncGraphQLRuntime {
 
     private final GraphQL graphql;
-    private final Connection dbConnection;
+    private final DataSource dataSource;
+    private final EntityCaches entityCaches;
+    private final PlaceIndex placeIndex;
+    private final Executor fetcherExecutor;
+    private final DataLoaderDispatch dataLoaderDispatch;
+    private final BoundedPersistedQueryCache persistedQueryCache = new BoundedPersistedQueryCache(1_000);
+    private final PreparsedDocumentCache documentCache = new PreparsedDocumentCache(1_000);
+    // latency and count of every field fetch, served by /metrics
+    private final FieldLatencyInstrumentation fieldLatencies = new FieldLatencyInstrumentation();
+    private final DataFetcherCounterInstrumentation fetcherCounters = new DataFetcherCounterInstrumentation();
 
-    public AsyncGraphQLRuntime(Connection dbConnection) throws IOException {
+    public AsyncGraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, Executor fetcherExecutor) throws IOException {
+        this(dataSource, entityCaches, fetcherExecutor, QueryBudget.defaults());
+    }
+
+    public AsyncGraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, Executor fetcherExecutor, QueryBudget queryBudget) throws IOException {
+        this(dataSource, entityCaches, PlaceIndex.load(dataSource), fetcherExecutor, queryBudget);
+    }
+
+    public AsyncGraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, PlaceIndex placeIndex, Executor fetcherExecutor, QueryBudget queryBudget) throws IOException {
+        this(dataSource, entityCaches, placeIndex, fetcherExecutor, queryBudget, DataLoaderDispatch.defaults());
+    }
 
-        this.dbConnection = dbConnection;
+    public AsyncGraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, PlaceIndex placeIndex, Executor fetcherExecutor,
+                  QueryBudget queryBudget, DataLoaderDispatch dataLoaderDispatch) throws IOException {
+
+        this.dataSource = dataSource;
+        this.entityCaches = entityCaches;
+        // the places search, kept current by updateProvince
+        this.placeIndex = placeIndex;
+        // runs the JDBC work of the batch loaders (and of the async fetchers), never the common pool
+        this.fetcherExecutor = fetcherExecutor;
+        // batch sizes and dispatch of the DataLoaders of every request
+        this.dataLoaderDispatch = dataLoaderDispatch;
 
         // The SchemaGenerator is responsible for turning a type registry and wiring into an executable GraphQLSchema
         SchemaGenerator schemaGenerator = new SchemaGenerator();
@@ -59,10 +102,17 @@ public class AsyncGraphQLRuntime {
         );
 
         graphql = GraphQL.newGraphQL(schema)
+                // parse and validate each distinct query only once
+                // automatic persisted queries: clients may send only the hash of an already known query
+                .preparsedDocumentProvider(documentCache.providerFor(schema, new ApolloPersistedQuerySupport(persistedQueryCache)))
                 //.instrumentation(new LoggingInstrumentation())
                 //.instrumentation(new AccessControlInstrumentation())
                 //.instrumentation(new DataFetcherCounterInstrumentation())  // the last one is the only one applied
                 //.instrumentation(chainedInstrumentations)
+                // operations over the budget are rejected before the fetchers run
+                .instrumentation(new ChainedInstrumentation(
+                        new QueryCostInstrumentation(queryBudget), fieldLatencies, fetcherCounters,
+                        new DataLoaderUsageInstrumentation(dataLoaderDispatch)))
                 .build();
     }
 
@@ -80,6 +130,8 @@ public class AsyncGraphQLRuntime {
         typeRegistry.add(TypeHelper.objectDefinitionOf(Province.class));
         // We add also the City
         typeRegistry.add(TypeHelper.objectDefinitionOf(City.class));
+        // @defer, as graphql-java defines it: only honored with incremental delivery (see executeAsync)
+        typeRegistry.add(Directives.DEFER_DIRECTIVE_DEFINITION);
 
         return typeRegistry;
     }
@@ -87,9 +139,7 @@ public class AsyncGraphQLRuntime {
     // Async version
     private RuntimeWiring buildRuntimeWiringAsync() {
 
-        try (ExecutorService executorService = Executors.newFixedThreadPool(8)) {
-
-            return RuntimeWiring.newRuntimeWiring()
+        return RuntimeWiring.newRuntimeWiring()
                 //Wire Scalars
                 .scalar(GraphQLScalarType.newScalar()
                         .name("Surface")
@@ -104,19 +154,29 @@ public class AsyncGraphQLRuntime {
                 .type("Place", builder -> builder.typeResolver(new PojoClassTypeResolver()))
 
                 //Wire Data Fetchers
-                //.type("Query", builder -> builder.dataFetcher("countries", async(new DBCountriesDataFetcher(dbConnection), executorService)))
-                .type("Query", builder -> builder.dataFetcher("countries", new AsyncDBCountriesDataFetcher(dbConnection)))
-                .type("Query", builder -> builder.dataFetcher("country", async(new DBOneCountryDataFetcher(dbConnection))))
-                .type("Query", builder -> builder.dataFetcher("provinces", async(new DBProvincesOfCountryDataFetcher(dbConnection))))
-                .type("Query",  builder -> builder.dataFetcher("places", async(new DBPlacesDataFetcher(dbConnection))))
-                .type("Country",  builder -> builder.dataFetcher("capital", async(new DBCityDataFetcher<>(dbConnection,Country::capital))))
-                .type("Country",  builder -> builder.dataFetcher("provinces", async(new DBProvincesOfCountryDataFetcher(dbConnection))))
-                .type("Province", builder -> builder.dataFetcher("capital", async(new DBCityDataFetcher<>(dbConnection,Province::capital))))
+                //.type("Query", builder -> builder.dataFetcher("countries", async(new DBCountriesDataFetcher(dataSource), fetcherExecutor)))
+                .type("Query", builder -> builder.dataFetcher("countries", new AsyncDBCountriesDataFetcher(dataSource, fetcherExecutor)))
+                .type("Query", builder -> builder.dataFetcher("country", async(new DBOneCountryDataFetcher(dataSource), fetcherExecutor)))
+                .type("Query", builder -> builder.dataFetcher("provinces", async(new DBProvincesOfCountryDataFetcher(dataSource), fetcherExecutor)))
+                //.type("Query",  builder -> builder.dataFetcher("places", async(new DBPlacesDataFetcher(dataSource), fetcherExecutor)))
+                // in memory: nothing to hand over to the fetcher executor
+                .type("Query",  builder -> builder.dataFetcher("places", new IndexedPlacesDataFetcher(placeIndex)))
+                .type("Query", builder -> builder.dataFetcher("countriesConnection", async(new DBCountriesConnectionDataFetcher(dataSource), fetcherExecutor)))
+                .type("Query", builder -> builder.dataFetcher("provincesConnection", async(new DBProvincesConnectionDataFetcher(dataSource), fetcherExecutor)))
+                .type("Query",  builder -> builder.dataFetcher("placesConnection", new IndexedPlacesConnectionDataFetcher(placeIndex)))
+                // the fields under a list go through the DataLoaders: one fetcher task and one query per batch,
+                // instead of one per parent, which a fetcher executor sized on the connection pool would reject
+                //.type("Country",  builder -> builder.dataFetcher("capital", async(new DBCityDataFetcher<>(dataSource,Country::capital), fetcherExecutor)))
+                .type("Country",  builder -> builder.dataFetcher("capital", new BatchCityDataFetcher<>(Country::capital)))
+                //.type("Country",  builder -> builder.dataFetcher("provinces", async(new DBProvincesOfCountryDataFetcher(dataSource), fetcherExecutor)))
+                .type("Country",  builder -> builder.dataFetcher("provinces", new BatchProvincesOfCountryDataFetcher()))
+                //.type("Province", builder -> builder.dataFetcher("capital", async(new DBCityDataFetcher<>(dataSource,Province::capital), fetcherExecutor)))
+                .type("Province", builder -> builder.dataFetcher("capital", new BatchCityDataFetcher<>(Province::capital)))
                 .type("City",  builder -> builder
-                        .dataFetcher("province", async(new DBProvinceFromCapitalDataFetcher(dbConnection)))
+                        //.dataFetcher("province", async(new DBProvinceFromCapitalDataFetcher(dataSource), fetcherExecutor))
+                        .dataFetcher("province", new BatchProvinceDataFetcher())
                  )
                 .build();
-        }
     }
 
     public ExecutionResult execute(String query) {
@@ -124,25 +184,110 @@ public class AsyncGraphQLRuntime {
     }
 
     public ExecutionResult execute(String query, Map<String, Object> variables, String operationName, Set<String> permissions) {
+        return execute(query, variables, operationName, null, permissions);
+    }
 
-        var cityDataLoader = DataLoaderFactory.newDataLoader(
-            new DBCityBatchLoader(dbConnection), // we can set cache options here, max batch size ...
-                DataLoaderOptions.newOptions().setMaxBatchSize(10).setCachingEnabled(true)
-        );
-        DataLoaderRegistry dataLoaderRegistry = new DataLoaderRegistry();
-        dataLoaderRegistry.register("City", cityDataLoader);
+    public ExecutionResult execute(String query, Map<String, Object> variables, String operationName,
+                                   Map<String, Object> extensions, Set<String> permissions) {
+        return graphql.execute(executionInput(query, variables, operationName, extensions, permissions,
+                false, newDataLoaderRegistry(RoutingDataSource.readYourWrites(extensions))));
+    }
+
+    /*
+     * Returns as soon as the execution is started: the future completes when every
+     * fetcher and DataLoader of the request has completed.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> variables, String operationName,
+                                                          Map<String, Object> extensions, Set<String> permissions) {
+        return executeAsync(query, variables, operationName, extensions, permissions, false);
+    }
+
+    /*
+     * With incrementalDelivery, @defer is honored: the future completes with an IncrementalExecutionResult
+     * as soon as the non deferred fields are there, and the deferred fragments are published after.
+     * Without it, @defer is ignored and the result is complete.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> variables, String operationName,
+                                                          Map<String, Object> extensions, Set<String> permissions,
+                                                          boolean incrementalDelivery) {
+        return graphql.executeAsync(executionInput(query, variables, operationName, extensions, permissions,
+                incrementalDelivery, newDataLoaderRegistry(RoutingDataSource.readYourWrites(extensions))));
+    }
+
+    /*
+     * One operation of a batch: the operations of an HTTP request run with the same registry (see
+     * newDataLoaderRegistry()), so a key loaded by several of them is fetched once, and the keys they queue
+     * go into the same batches whichever operation dispatches them. @defer is ignored.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> variables, String operationName,
+                                                          Map<String, Object> extensions, Set<String> permissions,
+                                                          DataLoaderRegistry dataLoaderRegistry) {
+        return graphql.executeAsync(executionInput(query, variables, operationName, extensions, permissions,
+                false, dataLoaderRegistry));
+    }
+
+    /*
+     * The DataLoaders of one HTTP request: a single operation gets its own, the operations of a batch share one.
+     */
+    public DataLoaderRegistry newDataLoaderRegistry() {
+        return newDataLoaderRegistry(false);
+    }
+
+    /*
+     * pinnedToPrimary: the batch loaders read from the primary instead of a replica, see RoutingDataSource.
+     */
+    public DataLoaderRegistry newDataLoaderRegistry(boolean pinnedToPrimary) {
+        DataSource reads = RoutingDataSource.readsOf(dataSource, pinnedToPrimary);
+        // cache options and max batch size come from the DispatchConfig (see DataLoaderDispatch)
+        return dataLoaderDispatch.newRegistry()
+                .register("City", new DBCityBatchLoader(reads, fetcherExecutor), entityCaches.cities().newRequestCacheMap())
+                .register("Province", new DBProvinceBatchLoader(reads, fetcherExecutor), entityCaches.provinces().newRequestCacheMap())
+                // only cached for the request, the key holds the range
+                .register("ProvincesOfCountry", new DBProvincesOfCountryBatchLoader(reads, fetcherExecutor))
+                .build();
+    }
+
+    private ExecutionInput executionInput(String query, Map<String, Object> variables, String operationName,
+                                          Map<String, Object> extensions, Set<String> permissions,
+                                          boolean incrementalDelivery, DataLoaderRegistry dataLoaderRegistry) {
 
         ExecutionInput.Builder executionInputBuilder = ExecutionInput.newExecutionInput()
-                .graphQLContext(Map.of("permissions", permissions))
+                .graphQLContext(Map.of("permissions", permissions,
+                        ExperimentalApi.ENABLE_INCREMENTAL_SUPPORT, incrementalDelivery,
+                        // the query fetchers read from the primary instead of a replica, see RoutingDataSource
+                        RoutingDataSource.PINNED_TO_PRIMARY, RoutingDataSource.readYourWrites(extensions)))
                 .dataLoaderRegistry(dataLoaderRegistry)
-                .query(query);
+                // a hash-only persisted query has no text: graphql-java expects this marker instead
+                .query(query != null ? query : PersistedQuerySupport.PERSISTED_QUERY_MARKER);
         if (variables != null) {
             executionInputBuilder.variables(variables);
         }
         if (operationName != null) {
             executionInputBuilder.operationName(operationName);
         }
-        return graphql.execute(executionInputBuilder.build());
+        if (extensions != null) {
+            executionInputBuilder.extensions(extensions);
+        }
+        return executionInputBuilder.build();
+    }
+
+    public BoundedPersistedQueryCache persistedQueryCache() {
+        return persistedQueryCache;
     }
-}
 
+    public PreparsedDocumentCache documentCache() {
+        return documentCache;
+    }
+
+    public DataLoaderDispatch dataLoaderDispatch() {
+        return dataLoaderDispatch;
+    }
+
+    public FieldLatencyInstrumentation fieldLatencies() {
+        return fieldLatencies;
+    }
+
+    public DataFetcherCounterInstrumentation fetcherCounters() {
+        return fetcherCounters;
+    }
+}
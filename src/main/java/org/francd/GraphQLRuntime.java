@@ -1,39 +1,85 @@
 package org.francd;
 
+import graphql.Directives;
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
+import graphql.ExperimentalApi;
 import graphql.GraphQL;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
 import graphql.execution.instrumentation.ChainedInstrumentation;
 import graphql.schema.GraphQLScalarType;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.*;
-import org.dataloader.DataLoaderFactory;
-import org.dataloader.DataLoaderOptions;
 import org.dataloader.DataLoaderRegistry;
 import org.francd.batch.DBCityBatchLoader;
 import org.francd.batch.DBProvinceBatchLoader;
+import org.francd.batch.DBProvincesOfCountryBatchLoader;
+import org.francd.cache.BoundedPersistedQueryCache;
+import org.francd.cache.EntityCaches;
+import org.francd.cache.PreparsedDocumentCache;
+import org.francd.db.routing.RoutingDataSource;
 import org.francd.fetchers.*;
+import org.francd.dispatch.DataLoaderDispatch;
 import org.francd.instrumentation.DataFetcherCounterInstrumentation;
+import org.francd.instrumentation.DataLoaderUsageInstrumentation;
+import org.francd.instrumentation.FieldLatencyInstrumentation;
 import org.francd.instrumentation.LoggingInstrumentation;
+import org.francd.instrumentation.QueryBudget;
+import org.francd.instrumentation.QueryCostInstrumentation;
 import org.francd.model.*;
+import org.francd.search.PlaceIndex;
 
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.sql.Connection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static graphql.schema.AsyncDataFetcher.async;
 
 public class GraphQLRuntime {
 
     private final GraphQL graphql;
-    private final Connection dbConnection;
+    private final DataSource dataSource;
+    private final EntityCaches entityCaches;
+    private final PlaceIndex placeIndex;
+    private final Executor fetcherExecutor;
+    private final DataLoaderDispatch dataLoaderDispatch;
+    private final BoundedPersistedQueryCache persistedQueryCache = new BoundedPersistedQueryCache(1_000);
+    private final PreparsedDocumentCache documentCache = new PreparsedDocumentCache(1_000);
+    // latency and count of every field fetch, served by /metrics
+    private final FieldLatencyInstrumentation fieldLatencies = new FieldLatencyInstrumentation();
+    private final DataFetcherCounterInstrumentation fetcherCounters = new DataFetcherCounterInstrumentation();
+
+    public GraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, Executor fetcherExecutor) throws IOException {
+        this(dataSource, entityCaches, fetcherExecutor, QueryBudget.defaults());
+    }
+
+    public GraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, Executor fetcherExecutor, QueryBudget queryBudget) throws IOException {
+        this(dataSource, entityCaches, PlaceIndex.load(dataSource), fetcherExecutor, queryBudget);
+    }
 
-    public GraphQLRuntime(Connection dbConnection) throws IOException {
+    public GraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, PlaceIndex placeIndex, Executor fetcherExecutor, QueryBudget queryBudget) throws IOException {
+        this(dataSource, entityCaches, placeIndex, fetcherExecutor, queryBudget, DataLoaderDispatch.defaults());
+    }
+
+    public GraphQLRuntime(DataSource dataSource, EntityCaches entityCaches, PlaceIndex placeIndex, Executor fetcherExecutor,
+                  QueryBudget queryBudget, DataLoaderDispatch dataLoaderDispatch) throws IOException {
 
-        this.dbConnection = dbConnection;
+        this.dataSource = dataSource;
+        this.entityCaches = entityCaches;
+        // the places search, kept current by updateProvince
+        this.placeIndex = placeIndex;
+        // runs the JDBC work of the batch loaders (and of the async fetchers), never the common pool
+        this.fetcherExecutor = fetcherExecutor;
+        // batch sizes and dispatch of the DataLoaders of every request
+        this.dataLoaderDispatch = dataLoaderDispatch;
 
         // The SchemaGenerator is responsible for turning a type registry and wiring into an executable GraphQLSchema
         SchemaGenerator schemaGenerator = new SchemaGenerator();
@@ -56,10 +102,17 @@ public class GraphQLRuntime {
         // This builds a GraphQL object that can later be called with execute(query)
         // to run queries against the schema.
         graphql = GraphQL.newGraphQL(schema)
+                // parse and validate each distinct query only once
+                // automatic persisted queries: clients may send only the hash of an already known query
+                .preparsedDocumentProvider(documentCache.providerFor(schema, new ApolloPersistedQuerySupport(persistedQueryCache)))
                 //.instrumentation(new LoggingInstrumentation())
                 //.instrumentation(new AccessControlInstrumentation())
                 //.instrumentation(new DataFetcherCounterInstrumentation())  // the last one is the only one applied
                 //.instrumentation(chainedInstrumentations)
+                // operations over the budget are rejected before the fetchers run
+                .instrumentation(new ChainedInstrumentation(
+                        new QueryCostInstrumentation(queryBudget), fieldLatencies, fetcherCounters,
+                        new DataLoaderUsageInstrumentation(dataLoaderDispatch)))
                 .build();
     }
 
@@ -77,6 +130,8 @@ public class GraphQLRuntime {
         //typeRegistry.add(TypeHelper.objectDefinitionOf(Province.class));
         // We add also the City
         //typeRegistry.add(TypeHelper.objectDefinitionOf(City.class));
+        // @defer, as graphql-java defines it: only honored with incremental delivery (see executeAsync)
+        typeRegistry.add(Directives.DEFER_DIRECTIVE_DEFINITION);
 
         return typeRegistry;
     }
@@ -97,31 +152,39 @@ public class GraphQLRuntime {
                 .type("Place", builder -> builder.typeResolver(new PojoClassTypeResolver()))
 
                 //Wire Data Fetchers
+                // the JDBC calls of the root fetchers run on the fetcher executor, so that executeAsync() returns
+                // without having waited for the database on the thread that calls it (a Jetty thread)
                 .type("Query", builder ->
                     builder
-                        .dataFetcher("countries", new DBCountriesDataFetcher(dbConnection))
-                        .dataFetcher("country", new DBOneCountryDataFetcher(dbConnection))
-                        .dataFetcher("provinces", new DBProvincesOfCountryDataFetcher(dbConnection))
-                        .dataFetcher("places", new DBPlacesDataFetcher(dbConnection)))
+                        .dataFetcher("countries", async(new DBCountriesDataFetcher(dataSource), fetcherExecutor))
+                        .dataFetcher("country", async(new DBOneCountryDataFetcher(dataSource), fetcherExecutor))
+                        .dataFetcher("provinces", async(new DBProvincesOfCountryDataFetcher(dataSource), fetcherExecutor))
+                        //.dataFetcher("places", new DBPlacesDataFetcher(dataSource)))
+                        .dataFetcher("places", new IndexedPlacesDataFetcher(placeIndex))
+                        .dataFetcher("countriesConnection", async(new DBCountriesConnectionDataFetcher(dataSource), fetcherExecutor))
+                        .dataFetcher("provincesConnection", async(new DBProvincesConnectionDataFetcher(dataSource), fetcherExecutor))
+                        .dataFetcher("placesConnection", new IndexedPlacesConnectionDataFetcher(placeIndex)))
 
-                //.type("Country",  builder -> builder.dataFetcher("capital", new DBCityDataFetcher<>(dbConnection,Country::capital)))
+                //.type("Country",  builder -> builder.dataFetcher("capital", new DBCityDataFetcher<>(dataSource,Country::capital)))
                 .type("Country", builder ->
                     builder
                         .dataFetcher("capital", new BatchCityDataFetcher<>(Country::capital))
-                        .dataFetcher("provinces", new DBProvincesOfCountryDataFetcher(dbConnection)))
-                        //.dataFetcher("provinces", new DBProvinceDataFetcher(dbConnection)))
+                        //.dataFetcher("provinces", new DBProvincesOfCountryDataFetcher(dataSource)))
+                        //.dataFetcher("provinces", new DBProvinceDataFetcher(dataSource)))
+                        .dataFetcher("provinces", new BatchProvincesOfCountryDataFetcher()))
 
-                //.type("Province", builder -> builder.dataFetcher("capital", new DBCityDataFetcher<>(dbConnection,Province::capital)))
+                //.type("Province", builder -> builder.dataFetcher("capital", new DBCityDataFetcher<>(dataSource,Province::capital)))
                 .type("Province", builder -> builder.dataFetcher("capital", new BatchCityDataFetcher<>(Province::capital)))
                 .type("City",  builder -> builder
-                                //.dataFetcher("province", new DBProvinceFromCapitalDataFetcher(dbConnection))
-                                //.dataFetcher("province", new DBProvinceDataFetcher(dbConnection))
+                                //.dataFetcher("province", new DBProvinceFromCapitalDataFetcher(dataSource))
+                                //.dataFetcher("province", new DBProvinceDataFetcher(dataSource))
                                 .dataFetcher("province", new BatchProvinceDataFetcher())
                 )
 
                 // Wire mutations
                 .type("Mutation", builder -> builder
-                    .dataFetcher("updateProvince", new DBUpdateProvinceDataFetcher(dbConnection)))
+                    .dataFetcher("updateProvince", async(new DBUpdateProvinceDataFetcher(dataSource, entityCaches.provinces(), placeIndex), fetcherExecutor))
+                    .dataFetcher("updateProvinces", async(new DBUpdateProvincesDataFetcher(dataSource, entityCaches.provinces(), placeIndex), fetcherExecutor)))
 
                 .build();
     }
@@ -131,31 +194,116 @@ public class GraphQLRuntime {
     }
 
     public ExecutionResult execute(String query, Map<String, Object> variables, String operationName, Set<String> permissions) {
+        return execute(query, variables, operationName, null, permissions);
+    }
 
-        var cityDataLoader = DataLoaderFactory.newDataLoader(
-            new DBCityBatchLoader(dbConnection),
-                DataLoaderOptions.newOptions().setMaxBatchSize(10).setCachingEnabled(true)
-        );
-        var provinceDataLoader = DataLoaderFactory.newDataLoader(
-                new DBProvinceBatchLoader(dbConnection),
-                DataLoaderOptions.newOptions().setMaxBatchSize(10).setCachingEnabled(true)
-        );
-        DataLoaderRegistry dataLoaderRegistry = new DataLoaderRegistry();
-        dataLoaderRegistry
-                .register("City", cityDataLoader)
-                .register("Province", provinceDataLoader);
+    public ExecutionResult execute(String query, Map<String, Object> variables, String operationName,
+                                   Map<String, Object> extensions, Set<String> permissions) {
+        return graphql.execute(executionInput(query, variables, operationName, extensions, permissions,
+                false, newDataLoaderRegistry(RoutingDataSource.readYourWrites(extensions))));
+    }
+
+    /*
+     * Returns as soon as the execution is started: the future completes when every
+     * fetcher and DataLoader of the request has completed.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> variables, String operationName,
+                                                          Map<String, Object> extensions, Set<String> permissions) {
+        return executeAsync(query, variables, operationName, extensions, permissions, false);
+    }
+
+    /*
+     * With incrementalDelivery, @defer is honored: the future completes with an IncrementalExecutionResult
+     * as soon as the non deferred fields are there, and the deferred fragments are published after.
+     * Without it, @defer is ignored and the result is complete.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> variables, String operationName,
+                                                          Map<String, Object> extensions, Set<String> permissions,
+                                                          boolean incrementalDelivery) {
+        return graphql.executeAsync(executionInput(query, variables, operationName, extensions, permissions,
+                incrementalDelivery, newDataLoaderRegistry(RoutingDataSource.readYourWrites(extensions))));
+    }
+
+    /*
+     * One operation of a batch: the operations of an HTTP request run with the same registry (see
+     * newDataLoaderRegistry()), so a key loaded by several of them is fetched once, and the keys they queue
+     * go into the same batches whichever operation dispatches them. @defer is ignored.
+     */
+    public CompletableFuture<ExecutionResult> executeAsync(String query, Map<String, Object> variables, String operationName,
+                                                          Map<String, Object> extensions, Set<String> permissions,
+                                                          DataLoaderRegistry dataLoaderRegistry) {
+        return graphql.executeAsync(executionInput(query, variables, operationName, extensions, permissions,
+                false, dataLoaderRegistry));
+    }
+
+    /*
+     * The DataLoaders of one HTTP request: a single operation gets its own, the operations of a batch share one.
+     */
+    public DataLoaderRegistry newDataLoaderRegistry() {
+        return newDataLoaderRegistry(false);
+    }
+
+    /*
+     * pinnedToPrimary: the batch loaders read from the primary instead of a replica (read-your-writes, see
+     * RoutingDataSource); it makes no difference when the DataSource of the runtime doesn't route.
+     */
+    public DataLoaderRegistry newDataLoaderRegistry(boolean pinnedToPrimary) {
+        DataSource reads = RoutingDataSource.readsOf(dataSource, pinnedToPrimary);
+        // max batch sizes from the DispatchConfig, tuned on the latency of the batches (see DataLoaderDispatch)
+        return dataLoaderDispatch.newRegistry()
+                // request scoped view over the process-wide cache: capitals survive the request
+                .register("City", new DBCityBatchLoader(reads, fetcherExecutor), entityCaches.cities().newRequestCacheMap())
+                .register("Province", new DBProvinceBatchLoader(reads, fetcherExecutor), entityCaches.provinces().newRequestCacheMap())
+                // the provinces of all the countries of a request in one query; only cached for the request, the key holds the range
+                .register("ProvincesOfCountry", new DBProvincesOfCountryBatchLoader(reads, fetcherExecutor))
+                .build();
+    }
+
+    private ExecutionInput executionInput(String query, Map<String, Object> variables, String operationName,
+                                          Map<String, Object> extensions, Set<String> permissions,
+                                          boolean incrementalDelivery, DataLoaderRegistry dataLoaderRegistry) {
 
         ExecutionInput.Builder executionInputBuilder = ExecutionInput.newExecutionInput()
-                .graphQLContext(Map.of("permissions", permissions))
+                .graphQLContext(Map.of("permissions", permissions,
+                        ExperimentalApi.ENABLE_INCREMENTAL_SUPPORT, incrementalDelivery,
+                        // the query fetchers read from the primary instead of a replica, see RoutingDataSource
+                        RoutingDataSource.PINNED_TO_PRIMARY, RoutingDataSource.readYourWrites(extensions)))
                 .dataLoaderRegistry(dataLoaderRegistry)
-                .query(query);
+                // a hash-only persisted query has no text: graphql-java expects this marker instead
+                .query(query != null ? query : PersistedQuerySupport.PERSISTED_QUERY_MARKER);
         if (variables != null) {
             executionInputBuilder.variables(variables);
         }
         if (operationName != null) {
             executionInputBuilder.operationName(operationName);
         }
-        return graphql.execute(executionInputBuilder.build());
+        if (extensions != null) {
+            executionInputBuilder.extensions(extensions);
+        }
+        return executionInputBuilder.build();
+    }
+
+    public GraphQLSchema schema() {
+        return graphql.getGraphQLSchema();
+    }
+
+    public BoundedPersistedQueryCache persistedQueryCache() {
+        return persistedQueryCache;
+    }
+
+    public PreparsedDocumentCache documentCache() {
+        return documentCache;
+    }
+
+    public DataLoaderDispatch dataLoaderDispatch() {
+        return dataLoaderDispatch;
     }
-}
 
+    public FieldLatencyInstrumentation fieldLatencies() {
+        return fieldLatencies;
+    }
+
+    public DataFetcherCounterInstrumentation fetcherCounters() {
+        return fetcherCounters;
+    }
+}
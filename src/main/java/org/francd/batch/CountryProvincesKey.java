@@ -0,0 +1,16 @@
+package org.francd.batch;
+
+import java.util.Map;
+
+/*
+ * Provinces of one country, with the population range of the criteria of the query (null bounds are open).
+ * Two countries queried with different ranges are two keys of the same batch.
+ */
+public record CountryProvincesKey(String countryCode, Integer above, Integer below) {
+
+    public static CountryProvincesKey of(String countryCode, Map<String, Integer> populationRange) {
+        return populationRange == null
+                ? new CountryProvincesKey(countryCode, null, null)
+                : new CountryProvincesKey(countryCode, populationRange.get("above"), populationRange.get("below"));
+    }
+}
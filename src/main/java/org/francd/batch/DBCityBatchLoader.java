@@ -2,34 +2,47 @@ package org.francd.batch;
 
 import org.dataloader.BatchLoader;
 import org.francd.db.Mapping;
+import org.francd.db.Projection;
 import org.francd.model.City;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
 
 public class DBCityBatchLoader implements BatchLoader<String, City> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DBCityBatchLoader.class);
 
+    /*
+     * The whole key set is bound as one array parameter, so there is a single SQL text (and a single
+     * server-side plan) whatever the batch size is.
+     * unnest ... WITH ORDINALITY returns exactly one row per key, in the order of the keys: the LEFT JOIN
+     * gives an all-null row for unknown cities and DISTINCT ON keeps one city when a name is not unique.
+     * Every column of City is read whatever the query selects: the cities loaded here go to the EntityCache,
+     * shared by all the requests.
+     */
     private final static String CITY_SQL = """
-                SELECT * FROM city WHERE name IN (%s)
-                """;
+                SELECT DISTINCT ON (k.idx) %s
+                FROM unnest(?::varchar[]) WITH ORDINALITY AS k(name, idx)
+                    LEFT JOIN city c ON c.name = k.name
+                ORDER BY k.idx
+                """.formatted(Projection.CITY.columns("c", Projection.CITY.all()));
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
+    private final Executor executor;
 
-    public DBCityBatchLoader(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBCityBatchLoader(DataSource dataSource, Executor executor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
     }
 
     @Override
@@ -39,33 +52,26 @@ public class DBCityBatchLoader implements BatchLoader<String, City> {
             LOGGER.info("load - list of keys is empty");
             return CompletableFuture.completedFuture(List.of());
         }
-        LOGGER.info("load - list of keys: {}", keys);
+        LOGGER.debug("load - list of keys: {}", keys);
 
         return CompletableFuture.supplyAsync((() -> {
-            try {
-                PreparedStatement statement = dbConnection.prepareStatement(CITY_SQL.formatted(
-             "'" + keys.stream().filter(Objects::nonNull)
-                     .map(k -> k.replaceAll("'", "''"))
-                     .collect(Collectors.joining("', '")) + "'"
-                ));
-
-                LOGGER.info(statement.toString().replaceAll("[\\s\\n]+", " "));
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(CITY_SQL)) {
 
+                statement.setArray(1, connection.createArrayOf("varchar", keys.toArray()));
                 ResultSet results = statement.executeQuery();
-                //to return results in the same order, we need to do this
-                Map<String, City> mappedResults = new ConcurrentHashMap<>();
+
+                //rows come back in the order of the keys, one per key
+                List<City> cities = new ArrayList<>(keys.size());
                 while (results.next()) {
-                    mappedResults.put(results.getString("name"), Mapping.cityOf(results));
+                    cities.add(results.getString("name") == null ? null : Mapping.cityOf(results));
                 }
 
-                LOGGER.info("load - list of cities - size: {}", mappedResults.size());
-
-                //this is what guarantees the right order: we get the order in the keys,
-                //so we use the keys to return the results back:
-                return keys.stream().map(mappedResults::get).toList();
+                LOGGER.debug("load - list of cities - size: {}", cities.size());
+                return cities;
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
-        }));
+        }), executor);
     }
 }
@@ -6,26 +6,35 @@ import org.francd.model.Province;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
 
 public class DBProvinceBatchLoader implements BatchLoader<String, Province> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DBProvinceBatchLoader.class);
 
-    private final Connection dbConnection;
+    // Same idea as DBCityBatchLoader: one array parameter, one row per key in the order of the keys
+    private final static String PROVINCE_SQL = """
+                SELECT DISTINCT ON (k.idx) p.name, p.capital, p.area, p.population
+                FROM unnest(?::varchar[]) WITH ORDINALITY AS k(name, idx)
+                    LEFT JOIN province p ON p.name = k.name
+                ORDER BY k.idx
+                """;
 
-    public DBProvinceBatchLoader(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    private final DataSource dataSource;
+    private final Executor executor;
+
+    public DBProvinceBatchLoader(DataSource dataSource, Executor executor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
     }
 
     @Override
@@ -35,37 +44,24 @@ public class DBProvinceBatchLoader implements BatchLoader<String, Province> {
             LOGGER.info("load - list of keys is empty");
             return CompletableFuture.completedFuture(List.of());
         }
-        LOGGER.info("load - list of keys: {}", keys);
-
-        StringBuilder stringBuilderSQL = new StringBuilder();
-        stringBuilderSQL.append("""
-            SELECT p.name, p.capital, p.area, p.population
-            FROM province p
-            WHERE p.name IN (%s)
-        """);
-
+        LOGGER.debug("load - list of keys: {}", keys);
 
         return CompletableFuture.supplyAsync((() -> {
-            try {
-                PreparedStatement statement = dbConnection.prepareStatement(stringBuilderSQL.toString().formatted(
-             "'" + keys.stream().filter(Objects::nonNull)
-                     .map(k -> k.replaceAll("'", "''"))
-                     .collect(Collectors.joining("', '")) + "'"
-                ));
-
-                LOGGER.info(statement.toString().replaceAll("[\\s\\n]+", " "));
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(PROVINCE_SQL)) {
 
+                statement.setArray(1, connection.createArrayOf("varchar", keys.toArray()));
                 ResultSet results = statement.executeQuery();
-                //to return results in the same order, we need to do this
-                Map<String, Province> mappedResults = new ConcurrentHashMap<>();
+
+                List<Province> provinces = new ArrayList<>(keys.size());
                 while (results.next()) {
-                    mappedResults.put(results.getString("name"), Mapping.provinceOf(results));
+                    provinces.add(results.getString("name") == null ? null : Mapping.provinceOf(results));
                 }
-                LOGGER.info("load - list of provinces - size: {}", mappedResults.size());
-                return keys.stream().map(mappedResults::get).toList();
+                LOGGER.debug("load - list of provinces - size: {}", provinces.size());
+                return provinces;
             } catch (SQLException e) {
                 throw new RuntimeException(e);
             }
-        }));
+        }), executor);
     }
 }
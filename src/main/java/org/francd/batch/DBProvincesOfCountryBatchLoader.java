@@ -0,0 +1,91 @@
+package org.francd.batch;
+
+import org.dataloader.BatchLoader;
+import org.francd.db.Mapping;
+import org.francd.model.Province;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/*
+ * The provinces of many countries in one round trip, instead of one query per country.
+ */
+public class DBProvincesOfCountryBatchLoader implements BatchLoader<CountryProvincesKey, List<Province>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DBProvincesOfCountryBatchLoader.class);
+
+    /*
+     * The keys are bound as three parallel arrays (country codes, lower and upper bounds), unnested together
+     * into one row per key: a single SQL text whatever the batch size and the ranges are.
+     * A null bound lets every population through, and the rows come back grouped by key, in the order of the keys.
+     */
+    private final static String PROVINCES_SQL = """
+                SELECT k.idx, p.name, p.capital, p.area, p.population
+                FROM unnest(?::varchar[], ?::integer[], ?::integer[]) WITH ORDINALITY AS k(code, above, below, idx)
+                    INNER JOIN province p ON p.country = k.code
+                WHERE (k.above IS NULL OR p.population >= k.above)
+                    AND (k.below IS NULL OR p.population <= k.below)
+                ORDER BY k.idx, p.name
+                """;
+
+    private final DataSource dataSource;
+    private final Executor executor;
+
+    public DBProvincesOfCountryBatchLoader(DataSource dataSource, Executor executor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<List<List<Province>>> load(List<CountryProvincesKey> keys) {
+
+        if (keys.isEmpty()) {
+            LOGGER.info("load - list of keys is empty");
+            return CompletableFuture.completedFuture(List.of());
+        }
+        LOGGER.debug("load - list of keys: {}", keys);
+
+        return CompletableFuture.supplyAsync((() -> {
+            Object[] codes = new Object[keys.size()];
+            Object[] aboves = new Object[keys.size()];
+            Object[] belows = new Object[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                codes[i] = keys.get(i).countryCode();
+                aboves[i] = keys.get(i).above();
+                belows[i] = keys.get(i).below();
+            }
+
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(PROVINCES_SQL)) {
+
+                statement.setArray(1, connection.createArrayOf("varchar", codes));
+                statement.setArray(2, connection.createArrayOf("integer", aboves));
+                statement.setArray(3, connection.createArrayOf("integer", belows));
+                ResultSet results = statement.executeQuery();
+
+                List<List<Province>> provinces = new ArrayList<>(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    provinces.add(new ArrayList<>());
+                }
+                while (results.next()) {
+                    // WITH ORDINALITY counts from 1
+                    provinces.get(results.getInt("idx") - 1).add(Mapping.provinceOf(results));
+                }
+                LOGGER.debug("load - provinces of {} countries", provinces.size());
+                return provinces;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }), executor);
+    }
+}
@@ -0,0 +1,193 @@
+package org.francd.cache;
+
+import java.io.Serial;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ * A thread-safe, approximately LRU map with a maximum size and an optional time to live.
+ *
+ * The entries are spread by hash over segments, each a LinkedHashMap in access order behind its own lock: a read
+ * reorders its segment, so it must lock it, but the reads of different keys rarely take the same lock. Each
+ * segment holds maxEntries / segments entries and drops its own least recently used one when it is full, which
+ * is the least recently used of the whole cache only on average. A small cache has a single segment, and is
+ * an exact LRU. Expired entries are removed lazily, when they are read.
+ * Hits, misses and evictions are counted for the metrics endpoint.
+ */
+public class BoundedCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 32;
+    // below that many entries per segment the eviction order would be too far from LRU
+    private static final int MIN_SEGMENT_ENTRIES = 64;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Segment<K, V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record Entry<V>(V value, long expiresAtNanos) {}
+
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl == null || ttl.isZero() ? Long.MAX_VALUE : ttl.toNanos();
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxEntries / MIN_SEGMENT_ENTRIES)));
+        this.segments = (Segment<K, V>[]) new Segment<?, ?>[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>(maxEntries / count, evictions);
+        }
+    }
+
+    public BoundedCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /*
+     * Returns the cached value or null when it is absent or expired.
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentOf(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.expiresAtNanos() - System.nanoTime() < 0) {
+                segment.remove(key);
+                evictions.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value();
+    }
+
+    /*
+     * Like get(), but not counted as a hit or a miss.
+     */
+    public V peek(K key) {
+        Segment<K, V> segment = segmentOf(key);
+        Entry<V> entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        return entry == null || entry.expiresAtNanos() - System.nanoTime() < 0 ? null : entry.value();
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttlNanos);
+    }
+
+    public void put(K key, V value, Duration ttl) {
+        put(key, value, Math.min(ttl.toNanos(), ttlNanos));
+    }
+
+    private void put(K key, V value, long entryTtlNanos) {
+        long expiresAt = entryTtlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + entryTtlNanos;
+        Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            segment.put(key, new Entry<>(value, expiresAt));
+        }
+    }
+
+    /*
+     * Returns the cached value, computing and caching it on a miss.
+     * The computation runs outside the lock: two threads missing the same key may both compute it.
+     */
+    public V computeIfAbsent(K key, Function<K, V> loader) {
+        V value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public void remove(K key) {
+        Segment<K, V> segment = segmentOf(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentOf(K key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRatio() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+        private final LongAdder evictions;
+
+        Segment(int maxEntries, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.francd.cache;
+
+import graphql.ExecutionInput;
+import graphql.language.Document;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.persisted.PersistedQueryCache;
+import graphql.execution.preparsed.persisted.PersistedQueryCacheMiss;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+
+import java.util.concurrent.CompletableFuture;
+
+import static graphql.execution.preparsed.persisted.PersistedQuerySupport.PERSISTED_QUERY_MARKER;
+
+/*
+ * Store of the automatic persisted queries (APQ), keyed by the SHA-256 hash sent by the client.
+ *
+ * It keeps the parsed and validated document, not the query text, so a hash-only request skips
+ * both the transfer and the parsing of the query. On a miss without query text graphql-java answers
+ * with a PersistedQueryNotFound error, and the client sends the hash again together with the full text.
+ * The graphql-java InMemoryPersistedQueryCache is unbounded, this one is an LRU of maxEntries documents.
+ */
+public class BoundedPersistedQueryCache implements PersistedQueryCache {
+
+    private final BoundedCache<Object, PreparsedDocumentEntry> documents;
+
+    public BoundedPersistedQueryCache(int maxEntries) {
+        this.documents = new BoundedCache<>(maxEntries);
+    }
+
+    @Override
+    public CompletableFuture<PreparsedDocumentEntry> getPersistedQueryDocumentAsync(Object persistedQueryId, ExecutionInput executionInput,
+                                                                                   PersistedQueryCacheMiss onCacheMiss) throws PersistedQueryNotFound {
+        PreparsedDocumentEntry entry = documents.get(persistedQueryId);
+        if (entry != null) {
+            return CompletableFuture.completedFuture(entry);
+        }
+        String queryText = executionInput.getQuery();
+        // the miss handler checks the hash of the text, then parses and validates it
+        entry = onCacheMiss.apply(PERSISTED_QUERY_MARKER.equals(queryText) ? null : queryText);
+        if (!entry.hasErrors()) {
+            documents.put(persistedQueryId, entry);
+        }
+        return CompletableFuture.completedFuture(entry);
+    }
+
+    /*
+     * The document persisted under that id, null when there is none. Neither a hit nor a miss.
+     */
+    public Document documentOf(Object persistedQueryId) {
+        PreparsedDocumentEntry entry = documents.peek(persistedQueryId);
+        return entry == null ? null : entry.getDocument();
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public long hits() {
+        return documents.hits();
+    }
+
+    public long misses() {
+        return documents.misses();
+    }
+
+    public long evictions() {
+        return documents.evictions();
+    }
+}
@@ -0,0 +1,168 @@
+package org.francd.cache;
+
+import org.dataloader.CacheMap;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Process-wide cache of loaded entities (cities, provinces...) shared by the DataLoaders of all requests.
+ *
+ * DataLoaders are still created per request: each one gets its own CacheMap from newRequestCacheMap().
+ * That map keeps the in-flight futures of its request and falls back to this shared store, which only
+ * ever holds completed values. A request therefore never waits on a batch queued by another request.
+ * Keys that the database does not know are cached too (negative lookups), with a shorter time to live.
+ *
+ * A load may complete after a mutation wrote its row through or invalidated it, all the more when it read from
+ * a lagging replica: it must not put its older row back. Every key has a generation, bumped by put() and
+ * invalidate(), and a load only shares its value when the generation of its key has not moved since it was
+ * queued. The generations are striped by hash: a key bumped by a write only costs the keys of its stripe a
+ * cache fill.
+ */
+public class EntityCache<K, V> {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final String name;
+    private final BoundedCache<K, Optional<V>> store;
+    private final Duration negativeTtl;
+    private final int estimatedBytesPerEntry;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public EntityCache(String name, int maxEntries, Duration ttl, Duration negativeTtl, int estimatedBytesPerEntry) {
+        this.name = name;
+        this.store = new BoundedCache<>(maxEntries, ttl);
+        this.negativeTtl = negativeTtl;
+        this.estimatedBytesPerEntry = estimatedBytesPerEntry;
+    }
+
+    public CacheMap<K, V> newRequestCacheMap() {
+        return new RequestCacheMap();
+    }
+
+    /*
+     * A write-through: the value replaces whatever a load still running would put.
+     */
+    public void put(K key, V value) {
+        generations.incrementAndGet(stripeOf(key));
+        store(key, value);
+    }
+
+    public void invalidate(K key) {
+        generations.incrementAndGet(stripeOf(key));
+        store.remove(key);
+    }
+
+    private void putIfUnchanged(K key, V value, long generation) {
+        int stripe = stripeOf(key);
+        if (generations.get(stripe) != generation) {
+            return;
+        }
+        store(key, value);
+        // a write between the check and the store: what was stored may be the older row, a miss is safer
+        if (generations.get(stripe) != generation) {
+            store.remove(key);
+        }
+    }
+
+    private void store(K key, V value) {
+        if (value == null) {
+            store.put(key, Optional.empty(), negativeTtl);
+        } else {
+            store.put(key, Optional.of(value));
+        }
+    }
+
+    private static int stripeOf(Object key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public long hits() {
+        return store.hits();
+    }
+
+    public long misses() {
+        return store.misses();
+    }
+
+    public long evictions() {
+        return store.evictions();
+    }
+
+    public double hitRatio() {
+        return store.hitRatio();
+    }
+
+    public long estimatedBytes() {
+        return (long) store.size() * estimatedBytesPerEntry;
+    }
+
+    private class RequestCacheMap implements CacheMap<K, V> {
+
+        private final Map<K, CompletableFuture<V>> futures = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean containsKey(K key) {
+            if (futures.containsKey(key)) {
+                return true;
+            }
+            Optional<V> shared = store.get(key);
+            if (shared == null) {
+                return false;
+            }
+            // copied locally so that the get() which follows cannot miss because of an expiry in between
+            futures.put(key, CompletableFuture.completedFuture(shared.orElse(null)));
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<V> get(K key) {
+            return futures.get(key);
+        }
+
+        @Override
+        public Collection<CompletableFuture<V>> getAll() {
+            return List.copyOf(futures.values());
+        }
+
+        @Override
+        public CacheMap<K, V> set(K key, CompletableFuture<V> future) {
+            futures.put(key, future);
+            long generation = generations.get(stripeOf(key));
+            // only successful loads are shared, failures stay local to the request
+            future.whenComplete((value, error) -> {
+                if (error == null) {
+                    putIfUnchanged(key, value, generation);
+                }
+            });
+            return this;
+        }
+
+        @Override
+        public CacheMap<K, V> delete(K key) {
+            futures.remove(key);
+            return this;
+        }
+
+        @Override
+        public CacheMap<K, V> clear() {
+            futures.clear();
+            return this;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.francd.cache;
+
+import org.francd.model.City;
+import org.francd.model.Province;
+
+import java.time.Duration;
+import java.util.List;
+
+/*
+ * The entity caches shared by both runtimes, so that an update done through one of them
+ * is seen by the other one.
+ */
+public record EntityCaches(
+        EntityCache<String, City> cities,
+        EntityCache<String, Province> provinces
+) {
+
+    public static EntityCaches defaults() {
+        return new EntityCaches(
+                new EntityCache<>("City", 10_000, Duration.ofMinutes(10), Duration.ofMinutes(1), 256),
+                new EntityCache<>("Province", 5_000, Duration.ofMinutes(10), Duration.ofMinutes(1), 160)
+        );
+    }
+
+    public List<EntityCache<?, ?>> all() {
+        return List.of(cities, provinces);
+    }
+}
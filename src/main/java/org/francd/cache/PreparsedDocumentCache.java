@@ -0,0 +1,69 @@
+package org.francd.cache;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import graphql.schema.GraphQLSchema;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/*
+ * LRU cache of parsed and validated documents, keyed by schema and query text.
+ *
+ * Variables are not part of the key: a parameterized operation is parsed and validated once,
+ * whatever values it is executed with. Requests using automatic persisted queries are handed over
+ * to the persisted query support, which has its own store keyed by hash.
+ */
+public class PreparsedDocumentCache {
+
+    private record Key(GraphQLSchema schema, String query) {}
+
+    private final BoundedCache<Key, PreparsedDocumentEntry> documents;
+
+    public PreparsedDocumentCache(int maxEntries) {
+        this.documents = new BoundedCache<>(maxEntries);
+    }
+
+    public PreparsedDocumentProvider providerFor(GraphQLSchema schema, PersistedQuerySupport persistedQueries) {
+        return new Provider(schema, persistedQueries);
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public long hits() {
+        return documents.hits();
+    }
+
+    public long misses() {
+        return documents.misses();
+    }
+
+    public long evictions() {
+        return documents.evictions();
+    }
+
+    private class Provider implements PreparsedDocumentProvider {
+
+        private final GraphQLSchema schema;
+        private final PersistedQuerySupport persistedQueries;
+
+        Provider(GraphQLSchema schema, PersistedQuerySupport persistedQueries) {
+            this.schema = schema;
+            this.persistedQueries = persistedQueries;
+        }
+
+        @Override
+        public CompletableFuture<PreparsedDocumentEntry> getDocumentAsync(ExecutionInput executionInput,
+                                                                          Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate) {
+            if (executionInput.getExtensions().containsKey("persistedQuery")) {
+                return persistedQueries.getDocumentAsync(executionInput, parseAndValidate);
+            }
+            return CompletableFuture.completedFuture(documents.computeIfAbsent(new Key(schema, executionInput.getQuery()),
+                    key -> parseAndValidate.apply(executionInput)));
+        }
+    }
+}
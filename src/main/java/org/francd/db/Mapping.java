@@ -8,41 +8,87 @@ import org.francd.model.Province;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
+/*
+ * Rows to model records. The variants taking a projection (see Projection) read only the columns it selects
+ * and leave the other components null: a partial record is fine, graphql-java only reads the fields
+ * the client asked for.
+ */
 public class Mapping {
 
+    private static final int COUNTRY_POPULATION = Projection.COUNTRY.bit("population");
+    private static final int COUNTRY_AREA = Projection.COUNTRY.bit("area");
+    private static final int COUNTRY_CAPITAL = Projection.COUNTRY.bit("capital");
+
+    private static final int PROVINCE_POPULATION = Projection.PROVINCE.bit("population");
+    private static final int PROVINCE_AREA = Projection.PROVINCE.bit("area");
+    private static final int PROVINCE_CAPITAL = Projection.PROVINCE.bit("capital");
+
+    private static final int CITY_POPULATION = Projection.CITY.bit("population");
+    private static final int CITY_GEO_LOCATION = Projection.CITY.bit("geoLocation");
+    private static final int CITY_ELEVATION = Projection.CITY.bit("elevation");
+    private static final int CITY_PROVINCE = Projection.CITY.bit("province");
+
     public static Country countryOf(ResultSet result) throws SQLException {
+        return countryOf(result, Projection.COUNTRY.all());
+    }
+
+    public static Country countryOf(ResultSet result, int projection) throws SQLException {
         return new Country(
                 result.getString("code"),
                 result.getString("name"),
-                result.getInt("population"),
-                result.getInt("area"),
-                result.getString("capital")
+                (projection & COUNTRY_POPULATION) != 0 ? result.getInt("population") : null,
+                (projection & COUNTRY_AREA) != 0 ? result.getInt("area") : null,
+                (projection & COUNTRY_CAPITAL) != 0 ? result.getString("capital") : null
         );
     }
 
     public static City cityOf(ResultSet result) throws SQLException {
+        return cityOf(result, "");
+    }
+
+    // for a city joined to another table, its columns selected as <prefix>name, <prefix>population...
+    public static City cityOf(ResultSet result, String prefix) throws SQLException {
+        return cityOf(result, prefix, Projection.CITY.all());
+    }
+
+    public static City cityOf(ResultSet result, int projection) throws SQLException {
+        return cityOf(result, "", projection);
+    }
+
+    private static City cityOf(ResultSet result, String prefix, int projection) throws SQLException {
         GeoCoord geoCoord = null;
-        if (result.getObject("latitude") != null &&
-                result.getObject("longitude") != null) {
-            geoCoord = new GeoCoord(result.getDouble("latitude"),
-                    result.getDouble("longitude"));
+        if ((projection & CITY_GEO_LOCATION) != 0 &&
+                result.getObject(prefix + "latitude") != null &&
+                result.getObject(prefix + "longitude") != null) {
+            geoCoord = new GeoCoord(result.getDouble(prefix + "latitude"),
+                    result.getDouble(prefix + "longitude"));
         }
 
         return new City(
-                result.getString("name"),
-                result.getInt("population"),
+                result.getString(prefix + "name"),
+                (projection & CITY_POPULATION) != 0 ? result.getInt(prefix + "population") : null,
                 geoCoord,
-                result.getInt("elevation"),
-                result.getString("province")
+                (projection & CITY_ELEVATION) != 0 ? result.getInt(prefix + "elevation") : null,
+                (projection & CITY_PROVINCE) != 0 ? result.getString(prefix + "province") : null
         );
     }
 
     public static Province provinceOf(ResultSet result) throws SQLException {
+        return provinceOf(result, Projection.PROVINCE.all());
+    }
+
+    public static Province provinceOf(ResultSet result, int projection) throws SQLException {
         return new Province(
                 result.getString("name"),
-                result.getInt("population"),
-                result.getString("capital"),
-                result.getInt("area")
+                (projection & PROVINCE_POPULATION) != 0 ? intOrNull(result, "population") : null,
+                (projection & PROVINCE_CAPITAL) != 0 ? result.getString("capital") : null,
+                (projection & PROVINCE_AREA) != 0 ? intOrNull(result, "area") : null
         );
     }
+
+    // the figures of a province can be cleared by its mutations: a NULL column is no figure, not 0
+    private static Integer intOrNull(ResultSet result, String column) throws SQLException {
+        int value = result.getInt(column);
+        return result.wasNull() ? null : value;
+    }
 }
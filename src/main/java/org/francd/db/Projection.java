@@ -0,0 +1,131 @@
+package org.francd.db;
+
+import graphql.schema.DataFetchingFieldSelectionSet;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The columns of a table a query selects, from the fields the client asked for.
+ *
+ * The key columns are always selected: they identify the row and are the join keys of the child fetchers
+ * (Country.provinces needs the code and the name of the country). Every other field is one bit of a mask
+ * with the columns it is read from, so that a projection is an int: it goes into the shape of a SqlShapeCache
+ * and tells Mapping which columns it can read. A field that is also a join key (Country.capital,
+ * City.province) selects its column only when it is requested, which is when its fetcher needs it.
+ */
+public final class Projection {
+
+    public static final Projection COUNTRY = new Projection(List.of("code", "name"), Map.of(
+            "population", List.of("population"),
+            "area", List.of("area"),
+            "capital", List.of("capital")));
+
+    public static final Projection PROVINCE = new Projection(List.of("name"), Map.of(
+            "population", List.of("population"),
+            "area", List.of("area"),
+            "capital", List.of("capital")));
+
+    public static final Projection CITY = new Projection(List.of("name"), Map.of(
+            "population", List.of("population"),
+            "geoLocation", List.of("latitude", "longitude"),
+            "elevation", List.of("elevation"),
+            "province", List.of("province")));
+
+    private final List<String> keyColumns;
+    // field -> columns, in the order of the bits
+    private final Map<String, List<String>> columnsByField;
+    private final List<String> fields;
+
+    private Projection(List<String> keyColumns, Map<String, List<String>> columnsByField) {
+        this.keyColumns = keyColumns;
+        // sorted: the bits must not depend on the iteration order of Map.of
+        this.columnsByField = new LinkedHashMap<>();
+        columnsByField.keySet().stream().sorted().forEach(field -> this.columnsByField.put(field, columnsByField.get(field)));
+        this.fields = List.copyOf(this.columnsByField.keySet());
+    }
+
+    // number of bits of a mask, for the shape of a SqlShapeCache
+    public int bits() {
+        return fields.size();
+    }
+
+    public int all() {
+        return (1 << fields.size()) - 1;
+    }
+
+    /*
+     * The key columns alone when no other field is asked for, every column otherwise: two column sets only,
+     * for a query that combines several projections and would have a SQL text for every combination.
+     */
+    public int keysOrAll(int mask) {
+        return mask == 0 ? 0 : all();
+    }
+
+    public int bit(String field) {
+        int index = fields.indexOf(field);
+        if (index < 0) {
+            throw new IllegalArgumentException("No column for the field " + field);
+        }
+        return 1 << index;
+    }
+
+    /*
+     * The fields selected directly under the field being fetched (a field in an inline fragment counts too).
+     */
+    public int of(DataFetchingFieldSelectionSet selectionSet) {
+        return of(selectionSet, "");
+    }
+
+    /*
+     * The fields selected under a path of the field being fetched: "edges/node/" for a connection.
+     */
+    public int of(DataFetchingFieldSelectionSet selectionSet, String path) {
+        int mask = 0;
+        for (int i = 0; i < fields.size(); i++) {
+            if (selectionSet.contains(path + fields.get(i))) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    public boolean selects(int mask, String column) {
+        if (keyColumns.contains(column)) {
+            return true;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if ((mask & (1 << i)) != 0 && columnsByField.get(fields.get(i)).contains(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * "c.code, c.name, c.area" for the alias c, or "code, name, area" without alias.
+     */
+    public String columns(String alias, int mask) {
+        String prefix = alias == null ? "" : alias + ".";
+        StringBuilder columns = new StringBuilder();
+        for (String column : keyColumns) {
+            append(columns, prefix, column);
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if ((mask & (1 << i)) != 0) {
+                for (String column : columnsByField.get(fields.get(i))) {
+                    append(columns, prefix, column);
+                }
+            }
+        }
+        return columns.toString();
+    }
+
+    private static void append(StringBuilder columns, String prefix, String column) {
+        if (!columns.isEmpty()) {
+            columns.append(", ");
+        }
+        columns.append(prefix).append(column);
+    }
+}
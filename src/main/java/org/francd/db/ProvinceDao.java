@@ -5,12 +5,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class ProvinceDao {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProvinceDao.class);
 
+    // prepared with these column names, the update gets a RETURNING clause from pgjdbc
+    private static final String[] PROVINCE_COLUMNS = {"name", "population", "capital", "area"};
+
     public static Optional<Province> findByName(Connection conn, String name) throws SQLException {
         String sql = """
                 SELECT name, population, capital, area
@@ -50,6 +56,60 @@ public class ProvinceDao {
         }
     }
 
+    /*
+     * The population and the area of the provinces named by each update, as one JDBC batch: a figure the
+     * update doesn't set is left as is, a null one clears the column (as updateProvince does). getGeneratedKeys()
+     * then holds the rows of the RETURNING clause of all the updates, in the order of the batch, so there is
+     * no SELECT before nor after.
+     * Returns the updated provinces of each update, none for an unknown name. A BatchUpdateException means
+     * the batch failed as a whole: in PostgreSQL the transaction is then aborted.
+     */
+    public static List<List<Province>> updateFigures(Connection conn, List<FiguresUpdate> updates) throws SQLException {
+        String sql = """
+            UPDATE province
+                SET population = CASE WHEN ? THEN ? ELSE population END,
+                    area = CASE WHEN ? THEN ? ELSE area END
+                WHERE name = ?
+            """;
+
+        try (PreparedStatement ps = conn.prepareStatement(sql, PROVINCE_COLUMNS)) {
+            for (FiguresUpdate update : updates) {
+                ps.setBoolean(1, update.setsPopulation());
+                setNullableInt(ps, 2, update.population());
+                ps.setBoolean(3, update.setsArea());
+                setNullableInt(ps, 4, update.area());
+                ps.setString(5, update.name());
+                ps.addBatch();
+            }
+            int[] counts = ps.executeBatch();
+
+            List<List<Province>> updated = new ArrayList<>(updates.size());
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                for (int count : counts) {
+                    List<Province> rows = new ArrayList<>(Math.max(count, 0));
+                    while (rows.size() < count && rs.next()) {
+                        rows.add(Mapping.provinceOf(rs));
+                    }
+                    updated.add(rows);
+                }
+            }
+            return updated;
+        }
+    }
+
+    /*
+     * One update of updateFigures(). A figure it doesn't set keeps its value, whatever population or area says.
+     */
+    public record FiguresUpdate(String name, boolean setsPopulation, Integer population, boolean setsArea, Integer area) {
+
+        // a ProvinceUpdate input: a field left out is not set, a field given as null is
+        public static FiguresUpdate of(Map<String, Object> input) {
+            return new FiguresUpdate((String) input.get("name"),
+                    input.containsKey("population"), (Integer) input.get("population"),
+                    input.containsKey("area"), (Integer) input.get("area"));
+        }
+    }
+
     // -------------------------------------------------------------------------
     // Helper methods
     // -------------------------------------------------------------------------
@@ -0,0 +1,69 @@
+package org.francd.db;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/*
+ * Caches the SQL text of a dynamic query by its criteria "shape".
+ *
+ * A shape is a bit mask with one bit per optional criterion (continent present, above present, ...).
+ * A query builder only has a handful of shapes, so each SQL string is built once and then reused:
+ * the text of a given shape is always the same String, which lets the JDBC driver find its server-side
+ * prepared statement in the per-connection statement cache instead of parsing and planning the query again.
+ */
+public class SqlShapeCache {
+
+    private static final List<SqlShapeCache> ALL = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final IntFunction<String> sqlBuilder;
+    private final AtomicReferenceArray<String> sqlByShape;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private SqlShapeCache(String name, int criteriaCount, IntFunction<String> sqlBuilder) {
+        this.name = name;
+        this.sqlBuilder = sqlBuilder;
+        this.sqlByShape = new AtomicReferenceArray<>(1 << criteriaCount);
+    }
+
+    /*
+     * A cache listed by all(), for the metrics.
+     */
+    public static SqlShapeCache of(String name, int criteriaCount, IntFunction<String> sqlBuilder) {
+        SqlShapeCache cache = new SqlShapeCache(name, criteriaCount, sqlBuilder);
+        ALL.add(cache);
+        return cache;
+    }
+
+    public String sqlFor(int shape) {
+        String sql = sqlByShape.get(shape);
+        if (sql != null) {
+            hits.increment();
+            return sql;
+        }
+        misses.increment();
+        // two threads may build the same shape concurrently: both results are equal, keep the first one
+        sqlByShape.compareAndSet(shape, null, sqlBuilder.apply(shape));
+        return sqlByShape.get(shape);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public static List<SqlShapeCache> all() {
+        return List.copyOf(ALL);
+    }
+}
@@ -2,12 +2,12 @@ package org.francd.db;
 
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class StateArgumentCollector {
 
-    private final List<Object> arguments = new LinkedList<>();
+    private final List<Object> arguments = new ArrayList<>(4);
 
     public void addString(String stringValue) {
         assert stringValue != null;
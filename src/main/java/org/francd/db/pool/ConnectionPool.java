@@ -0,0 +1,387 @@
+package org.francd.db.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A small JDBC connection pool.
+ *
+ * Every getConnection() leases one physical connection; closing the returned Connection gives it back
+ * to the pool instead of closing the socket. The number of leases is bounded by a fair semaphore so
+ * callers wait at most leaseTimeout for a free connection.
+ * A background housekeeper reports leaked leases and closes connections that have been idle for too long.
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final ConnectionPoolConfig config;
+    private final Semaphore leases;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder leaseTimeouts = new LongAdder();
+    private final LongAdder leaksDetected = new LongAdder();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(ConnectionPoolConfig config) throws SQLException {
+        this.config = config;
+        this.leases = new Semaphore(config.maxSize(), true);
+        for (int i = 0; i < config.minSize(); i++) {
+            idle.push(openPhysical());
+        }
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("connection-pool-housekeeper")
+                .daemon()
+                .factory());
+        long periodMillis = Math.max(1000, Math.min(
+                config.validationInterval().toMillis(),
+                leakDetectionEnabled() ? config.leakDetectionThreshold().toMillis() / 2 : Long.MAX_VALUE));
+        housekeeper.scheduleWithFixedDelay(this::houseKeeping, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Connection pool started - min: {}, max: {}", config.minSize(), config.maxSize());
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(config.leaseTimeout());
+    }
+
+    /*
+     * A lease waiting at most leaseTimeout instead of the one of the config: a caller with somewhere else to go
+     * (another replica, the primary) doesn't wait for this pool to free a connection.
+     */
+    public Connection getConnection(Duration leaseTimeout) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!leases.tryAcquire(leaseTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                leaseTimeouts.increment();
+                throw new SQLTimeoutException("No connection available after %d ms (max pool size %d)"
+                        .formatted(leaseTimeout.toMillis(), config.maxSize()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeIdleOrOpen();
+            pooled.markLeased(leakDetectionEnabled());
+            leased.add(pooled);
+            leaseCount.increment();
+            return pooled.proxy();
+        } catch (SQLException | RuntimeException e) {
+            leases.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrOpen() throws SQLException {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (pooled.idleMillis() < config.validationInterval().toMillis() || isValid(pooled)) {
+                return pooled;
+            }
+            LOGGER.warn("Discarding broken pooled connection");
+            discard(pooled);
+        }
+        return openPhysical();
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(config.jdbcUrl(), config.connectionProperties());
+        totalConnections.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        leased.remove(pooled);
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                discard(pooled);
+            } else {
+                if (!pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+                if (pooled.physical.isReadOnly()) {
+                    pooled.physical.setReadOnly(false);
+                }
+                pooled.markIdle();
+                idle.offerFirst(pooled);
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Unable to reset pooled connection, discarding it", e);
+            discard(pooled);
+        } finally {
+            leases.release();
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Error closing discarded connection", e);
+        }
+    }
+
+    private void houseKeeping() {
+        try {
+            if (leakDetectionEnabled()) {
+                long threshold = config.leakDetectionThreshold().toMillis();
+                for (PooledConnection pooled : leased) {
+                    if (pooled.leasedMillis() > threshold && pooled.reportLeak()) {
+                        leaksDetected.increment();
+                        LOGGER.warn("Connection leased for more than {} ms, possible leak", threshold, pooled.leaseSite);
+                    }
+                }
+            }
+            // retire idle connections above minSize, the oldest ones sit at the end of the deque
+            long idleTimeout = config.idleTimeout().toMillis();
+            PooledConnection oldest;
+            while (totalConnections.get() > config.minSize()
+                    && (oldest = idle.peekLast()) != null
+                    && oldest.idleMillis() > idleTimeout
+                    && idle.removeLastOccurrence(oldest)) {
+                discard(oldest);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Connection pool housekeeping failed", e);
+        }
+    }
+
+    private boolean leakDetectionEnabled() {
+        return !config.leakDetectionThreshold().isZero();
+    }
+
+    // -------------------------------------------------------------------------
+    // Metrics
+    // -------------------------------------------------------------------------
+
+    // the most leases at once
+    public int maxSize() {
+        return config.maxSize();
+    }
+
+    public int activeConnections() {
+        return leased.size();
+    }
+
+    public int idleConnections() {
+        return idle.size();
+    }
+
+    public int totalConnections() {
+        return totalConnections.get();
+    }
+
+    public int waitingThreads() {
+        return leases.getQueueLength();
+    }
+
+    public long leaseCount() {
+        return leaseCount.sum();
+    }
+
+    public long leaseTimeouts() {
+        return leaseTimeouts.sum();
+    }
+
+    public long leaksDetected() {
+        return leaksDetected.sum();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+        LOGGER.info("Connection pool closed - {} connections still leased", leased.size());
+    }
+
+    // -------------------------------------------------------------------------
+    // DataSource boilerplate
+    // -------------------------------------------------------------------------
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool only hands out connections of its configured user");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /*
+     * One physical connection and its lease bookkeeping.
+     * Callers only ever see proxies: close() on a proxy gives the physical connection back to the pool,
+     * and any later call on that same proxy fails as it would on a really closed connection.
+     */
+    private class PooledConnection {
+
+        private final Connection physical;
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile long leasedAtNanos;
+        private volatile Throwable leaseSite;
+        private volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        void markLeased(boolean captureSite) {
+            leasedAtNanos = System.nanoTime();
+            leaseSite = captureSite ? new Throwable("Lease site") : null;
+            leakReported = false;
+        }
+
+        void markIdle() {
+            lastUsedNanos = System.nanoTime();
+            leaseSite = null;
+        }
+
+        long idleMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedNanos);
+        }
+
+        long leasedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - leasedAtNanos);
+        }
+
+        boolean reportLeak() {
+            if (leakReported) {
+                return false;
+            }
+            leakReported = true;
+            return true;
+        }
+
+        Connection proxy() {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new LeaseHandler(this));
+        }
+    }
+
+    private class LeaseHandler implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private volatile boolean released;
+
+        LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!released) {
+                        released = true;
+                        giveBack(pooled);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return released || pooled.physical.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled" + pooled.physical;
+                }
+                default -> {
+                    if (released) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    try {
+                        return method.invoke(pooled.physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.francd.db.pool;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Properties;
+
+/*
+ * Settings of a ConnectionPool.
+ *  - minSize / maxSize: physical connections kept open at least / opened at most
+ *  - leaseTimeout: how long getConnection() waits for a free connection before failing
+ *  - idleTimeout: idle connections above minSize are closed after this time
+ *  - validationInterval: an idle connection older than this is validated before being leased again
+ *  - leakDetectionThreshold: a lease held longer than this is reported (Duration.ZERO disables it). It records
+ *    the stack of every lease, so it is off by default: turn it on in development and in the tests
+ */
+public record ConnectionPoolConfig(
+        String jdbcUrl,
+        Properties connectionProperties,
+        int minSize,
+        int maxSize,
+        Duration leaseTimeout,
+        Duration idleTimeout,
+        Duration validationInterval,
+        Duration leakDetectionThreshold
+) {
+
+    public ConnectionPoolConfig {
+        Objects.requireNonNull(jdbcUrl, "jdbcUrl");
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=%d, max=%d".formatted(minSize, maxSize));
+        }
+        connectionProperties = connectionProperties == null ? new Properties() : connectionProperties;
+    }
+
+    public static ConnectionPoolConfig of(String jdbcUrl, String user, String password) {
+        Properties properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ConnectionPoolConfig(
+                jdbcUrl,
+                properties,
+                2,
+                Math.max(4, cores * 2),
+                Duration.ofSeconds(5),
+                Duration.ofMinutes(5),
+                Duration.ofSeconds(30),
+                Duration.ZERO
+        );
+    }
+
+    public ConnectionPoolConfig withConnectionProperty(String key, String value) {
+        Properties properties = new Properties();
+        properties.putAll(connectionProperties);
+        properties.setProperty(key, value);
+        return new ConnectionPoolConfig(jdbcUrl, properties, minSize, maxSize,
+                leaseTimeout, idleTimeout, validationInterval, leakDetectionThreshold);
+    }
+
+    public ConnectionPoolConfig withSize(int minSize, int maxSize) {
+        return new ConnectionPoolConfig(jdbcUrl, connectionProperties, minSize, maxSize,
+                leaseTimeout, idleTimeout, validationInterval, leakDetectionThreshold);
+    }
+
+    public ConnectionPoolConfig withLeaseTimeout(Duration leaseTimeout) {
+        return new ConnectionPoolConfig(jdbcUrl, connectionProperties, minSize, maxSize,
+                leaseTimeout, idleTimeout, validationInterval, leakDetectionThreshold);
+    }
+
+    public ConnectionPoolConfig withLeakDetectionThreshold(Duration leakDetectionThreshold) {
+        return new ConnectionPoolConfig(jdbcUrl, connectionProperties, minSize, maxSize,
+                leaseTimeout, idleTimeout, validationInterval, leakDetectionThreshold);
+    }
+}
@@ -0,0 +1,53 @@
+package org.francd.db.routing;
+
+import java.time.Duration;
+
+/*
+ * How a RoutingDataSource picks the replica a read goes to.
+ *  - maxReplicationLag: a replica further behind the primary than that gets no reads until it catches up
+ *  - healthCheckInterval: how often every replica is checked (reachable, in recovery or not, lag)
+ *  - healthCheckTimeout: how long a check may take before the replica counts as down
+ *  - replicaLeaseTimeout: how long a read waits for a connection of a replica whose pool is busy before it
+ *    tries the next one (and at last the primary)
+ */
+public record RoutingConfig(
+        Duration maxReplicationLag,
+        Duration healthCheckInterval,
+        Duration healthCheckTimeout,
+        Duration replicaLeaseTimeout
+) {
+
+    public RoutingConfig {
+        if (maxReplicationLag.isNegative()) {
+            throw new IllegalArgumentException("Negative max replication lag: " + maxReplicationLag);
+        }
+        if (healthCheckInterval.isNegative() || healthCheckInterval.isZero()
+                || healthCheckTimeout.getSeconds() < 1) {
+            throw new IllegalArgumentException("Invalid health checks: every %s, timeout %s"
+                    .formatted(healthCheckInterval, healthCheckTimeout));
+        }
+        if (replicaLeaseTimeout.isNegative()) {
+            throw new IllegalArgumentException("Negative replica lease timeout: " + replicaLeaseTimeout);
+        }
+    }
+
+    /*
+     * A few seconds of lag is what an asynchronous streaming replica shows under write bursts; a client that
+     * must see its own writes asks for it (see RoutingDataSource.readYourWrites()).
+     */
+    public static RoutingConfig defaults() {
+        return new RoutingConfig(Duration.ofSeconds(5), Duration.ofSeconds(2), Duration.ofSeconds(1), Duration.ofMillis(20));
+    }
+
+    public RoutingConfig withMaxReplicationLag(Duration maxReplicationLag) {
+        return new RoutingConfig(maxReplicationLag, healthCheckInterval, healthCheckTimeout, replicaLeaseTimeout);
+    }
+
+    public RoutingConfig withHealthCheckInterval(Duration healthCheckInterval) {
+        return new RoutingConfig(maxReplicationLag, healthCheckInterval, healthCheckTimeout, replicaLeaseTimeout);
+    }
+
+    public RoutingConfig withReplicaLeaseTimeout(Duration replicaLeaseTimeout) {
+        return new RoutingConfig(maxReplicationLag, healthCheckInterval, healthCheckTimeout, replicaLeaseTimeout);
+    }
+}
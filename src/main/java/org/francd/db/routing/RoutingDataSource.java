@@ -0,0 +1,341 @@
+package org.francd.db.routing;
+
+import org.francd.db.pool.ConnectionPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Sends the reads to the read replicas and everything else to the primary.
+ *
+ * getConnection() leases a connection of the primary: whoever doesn't say it only reads (a mutation, a
+ * transaction) writes where the data is. reads() is the DataSource of the readers, the query fetchers, the
+ * batch loaders and the exports: each of its leases goes to the next healthy replica, round robin, or to the
+ * primary when no replica is healthy. A replica is healthy when its last check reached it and found it at most
+ * maxReplicationLag behind the primary; a lease that fails takes it out until the next check says otherwise.
+ *
+ * A replica applies the writes of the primary a little later, so a client reading what it has just written
+ * may not find it there. It asks for read-your-writes in the extensions of its request ({"readYourWrites": true},
+ * see readYourWrites()) and the runtimes pin that request to the primary, batch loaders included.
+ *
+ * The replicas are only borrowed: their pools are closed by whoever opened them.
+ */
+public class RoutingDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoutingDataSource.class);
+
+    // key of the GraphQL context of a request pinned to the primary
+    public static final String PINNED_TO_PRIMARY = "pinnedToPrimary";
+    // the request extension asking for it
+    public static final String READ_YOUR_WRITES = "readYourWrites";
+
+    // a server not in recovery is a primary (or a stand-in for a replica): no lag. A replica that has replayed
+    // everything it received is as fresh as it can be, whatever the age of the last transaction
+    private static final String LAG_QUERY = """
+            SELECT (CASE WHEN NOT pg_is_in_recovery() THEN 0
+                         WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                         ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)
+                    END)::bigint""";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final RoutingConfig config;
+    private final DataSource reads = new ReadDataSource();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder primaryReads = new LongAdder();
+    // null without replicas
+    private final ScheduledExecutorService healthChecker;
+
+    private RoutingDataSource(DataSource primary, Map<String, ? extends DataSource> replicas, RoutingConfig config) {
+        this.primary = primary;
+        this.config = config;
+        List<Replica> list = new ArrayList<>();
+        replicas.forEach((name, dataSource) -> list.add(new Replica(name, dataSource)));
+        this.replicas = List.copyOf(list);
+        this.healthChecker = this.replicas.isEmpty() ? null : Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("replica-health-check")
+                .daemon()
+                .factory());
+    }
+
+    /*
+     * The replicas by name, in the order of the map; their first check is done before it returns.
+     */
+    public static RoutingDataSource of(DataSource primary, Map<String, ? extends DataSource> replicas, RoutingConfig config) {
+        RoutingDataSource routing = new RoutingDataSource(primary, replicas, config);
+        routing.start();
+        return routing;
+    }
+
+    private void start() {
+        if (healthChecker == null) {
+            LOGGER.info("No read replica - every read goes to the primary");
+            return;
+        }
+        checkReplicas();
+        long periodMillis = config.healthCheckInterval().toMillis();
+        healthChecker.scheduleWithFixedDelay(this::checkReplicas, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Routing reads to {} replicas - max lag: {} ms", replicas.size(), config.maxReplicationLag().toMillis());
+    }
+
+    /*
+     * Whether the extensions of a request ask to read from the primary.
+     */
+    public static boolean readYourWrites(Map<String, Object> extensions) {
+        return extensions != null && Boolean.TRUE.equals(extensions.get(READ_YOUR_WRITES));
+    }
+
+    /*
+     * Where a reader of dataSource gets its connections: the replicas of a RoutingDataSource unless the
+     * request is pinned to the primary, and dataSource itself for any other DataSource.
+     */
+    public static DataSource readsOf(DataSource dataSource, boolean pinnedToPrimary) {
+        return dataSource instanceof RoutingDataSource routing && !pinnedToPrimary ? routing.reads() : dataSource;
+    }
+
+    public DataSource reads() {
+        return reads;
+    }
+
+    public DataSource primary() {
+        return primary;
+    }
+
+    public List<Replica> replicas() {
+        return replicas;
+    }
+
+    // reads that found no healthy replica
+    public long primaryReads() {
+        return primaryReads.sum();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return primary.getConnection();
+    }
+
+    private Connection read() throws SQLException {
+        int size = replicas.size();
+        int first = size == 0 ? 0 : Math.floorMod(nextReplica.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((first + i) % size);
+            if (replica.healthy) {
+                try {
+                    // a busy pool is only waited for a moment: the next replica or the primary may have a connection now
+                    Connection connection = replica.dataSource instanceof ConnectionPool pool
+                            ? pool.getConnection(config.replicaLeaseTimeout())
+                            : replica.dataSource.getConnection();
+                    replica.reads.increment();
+                    return connection;
+                } catch (SQLTimeoutException e) {
+                    // its pool is busy, not the replica down: try the next one
+                    LOGGER.debug("No connection of replica {} available", replica.name);
+                } catch (SQLException e) {
+                    replica.down(e);
+                }
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    /*
+     * Checks every replica now, as the health checker does every healthCheckInterval.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            // the lease counts in the time of the check: a busy pool doesn't hold the checker up for its whole lease timeout
+            try (Connection connection = replica.dataSource instanceof ConnectionPool pool
+                         ? pool.getConnection(config.healthCheckTimeout())
+                         : replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.setQueryTimeout((int) config.healthCheckTimeout().toSeconds());
+                try (ResultSet results = statement.executeQuery(LAG_QUERY)) {
+                    results.next();
+                    replica.checked(results.getLong(1), config.maxReplicationLag().toMillis());
+                }
+            } catch (SQLTimeoutException e) {
+                // its pool is busy, not the replica down: it keeps the state of its last check
+                LOGGER.debug("Replica {} not checked: {}", replica.name, e.getMessage());
+            } catch (SQLException e) {
+                replica.down(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The routing data source has its own credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /*
+     * One replica and what its last check found. Unhealthy until its first check.
+     */
+    public static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy;
+        // -1 when the last check could not measure it
+        private volatile long lagMillis = -1;
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        void checked(long lagMillis, long maxLagMillis) {
+            this.lagMillis = lagMillis;
+            boolean nowHealthy = lagMillis <= maxLagMillis;
+            if (nowHealthy != healthy) {
+                if (nowHealthy) {
+                    LOGGER.info("Replica {} is up - lag: {} ms", name, lagMillis);
+                } else {
+                    LOGGER.warn("Replica {} is {} ms behind the primary, no more reads until it catches up", name, lagMillis);
+                }
+            }
+            healthy = nowHealthy;
+        }
+
+        void down(SQLException e) {
+            failures.increment();
+            lagMillis = -1;
+            if (healthy) {
+                LOGGER.warn("Replica {} is down: {}", name, e.getMessage());
+            }
+            healthy = false;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public boolean healthy() {
+            return healthy;
+        }
+
+        public long lagMillis() {
+            return lagMillis;
+        }
+
+        public long reads() {
+            return reads.sum();
+        }
+
+        // failed checks and leases
+        public long failures() {
+            return failures.sum();
+        }
+    }
+
+    /*
+     * reads(): the leases go through read(), the rest is the primary's.
+     */
+    private class ReadDataSource implements DataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return read();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new SQLFeatureNotSupportedException("The routing data source has its own credentials");
+        }
+
+        @Override
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) {
+        }
+
+        @Override
+        public int getLoginTimeout() {
+            return 0;
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return RoutingDataSource.this.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) {
+            return RoutingDataSource.this.isWrapperFor(iface);
+        }
+    }
+}
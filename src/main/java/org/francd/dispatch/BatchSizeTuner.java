@@ -0,0 +1,125 @@
+package org.francd.dispatch;
+
+import org.dataloader.BatchLoader;
+import org.francd.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The batches of one DataLoader, for the whole process: how many, how many keys, how long they took, and the
+ * max batch size the next DataLoaders of that name get.
+ *
+ * The time of a batch is modelled as fixed + perKey * keys, fitted by least squares over the recent batches
+ * (each batch weighs DECAY times less than the next one). Past fixed / perKey keys a batch spends more time
+ * on its keys than on its round trip: two half batches loaded in parallel would be done sooner, for one more
+ * round trip. With autoTune the max batch size goes to that number of keys, between the min and the max of
+ * the config. When the time does not grow with the keys, it is doubled instead, up to the max.
+ * It changes at most once every MIN_SAMPLES batches, so that enough batches of the new size get measured.
+ */
+public class BatchSizeTuner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchSizeTuner.class);
+
+    private static final double DECAY = 0.98;
+    private static final int MIN_SAMPLES = 20;
+
+    private final String name;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final boolean autoTune;
+    private volatile int batchSize;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder keys = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram(6, 10, TimeUnit.SECONDS);
+
+    // decayed sums of the fit, guarded by this
+    private double weight;
+    private double sumKeys;
+    private double sumMicros;
+    private double sumKeysSquared;
+    private double sumKeysMicros;
+    private int samples;
+
+    BatchSizeTuner(String name, int minBatchSize, int maxBatchSize, boolean autoTune) {
+        this.name = name;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.autoTune = autoTune;
+        this.batchSize = maxBatchSize;
+    }
+
+    /*
+     * The batch loader, timed: from the call to the completion of its values.
+     */
+    <K, V> BatchLoader<K, V> timed(BatchLoader<K, V> batchLoader) {
+        return batchKeys -> {
+            long start = System.nanoTime();
+            return batchLoader.load(batchKeys).whenComplete((values, error) -> {
+                if (error == null) {
+                    record(batchKeys.size(), System.nanoTime() - start);
+                }
+            });
+        };
+    }
+
+    void record(int keyCount, long nanos) {
+        batches.increment();
+        keys.add(keyCount);
+        latencies.recordNanos(nanos);
+        if (autoTune) {
+            fit(keyCount, nanos / 1_000.0);
+        }
+    }
+
+    private synchronized void fit(int keyCount, double micros) {
+        weight = weight * DECAY + 1;
+        sumKeys = sumKeys * DECAY + keyCount;
+        sumMicros = sumMicros * DECAY + micros;
+        sumKeysSquared = sumKeysSquared * DECAY + (double) keyCount * keyCount;
+        sumKeysMicros = sumKeysMicros * DECAY + keyCount * micros;
+        if (++samples < MIN_SAMPLES) {
+            return;
+        }
+        // weight² times the variance of the key counts: nothing to fit while the batches are all the same size
+        double spread = weight * sumKeysSquared - sumKeys * sumKeys;
+        if (spread < weight * weight) {
+            return;
+        }
+        double perKey = (weight * sumKeysMicros - sumKeys * sumMicros) / spread;
+        double fixed = (sumMicros - perKey * sumKeys) / weight;
+        int tuned = perKey <= 0
+                ? Math.min(maxBatchSize, 2 * batchSize)
+                : Math.clamp((long) Math.max(0, fixed / perKey), minBatchSize, maxBatchSize);
+        if (tuned != batchSize) {
+            LOGGER.info("{} batches: {} µs + {} µs per key, max batch size {} -> {}",
+                    name, Math.round(fixed), "%.2f".formatted(perKey), batchSize, tuned);
+            batchSize = tuned;
+            samples = 0;
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // what the next DataLoader gets as max batch size
+    public int batchSize() {
+        return batchSize;
+    }
+
+    public long batches() {
+        return batches.sum();
+    }
+
+    public long keys() {
+        return keys.sum();
+    }
+
+    public LatencyHistogram.Snapshot latencies() {
+        return latencies.snapshot();
+    }
+}
@@ -0,0 +1,48 @@
+package org.francd.dispatch;
+
+import org.dataloader.DataLoader;
+import org.dataloader.registries.DispatchPredicate;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+/*
+ * Lets the DataLoaders of one registry wait up to a window for more keys: a DataLoader is dispatched once
+ * the window has passed since it was first asked to dispatch its pending keys, or as soon as it holds a full
+ * batch. dispatchIfLongerThan() of java-dataloader counts from the last dispatch instead, which is long past
+ * when the first level of a query is done, so it would dispatch straight away.
+ */
+final class BatchWindowPredicate implements DispatchPredicate {
+
+    private final long windowNanos;
+    private final ToIntFunction<String> batchSizes;
+    // System::nanoTime, a clock of their own in the tests
+    private final LongSupplier nanoTime;
+    // the DataLoaders with keys waiting, since when
+    private final Map<DataLoader<?, ?>, Long> waitingSince = new ConcurrentHashMap<>();
+
+    BatchWindowPredicate(Duration window, ToIntFunction<String> batchSizes, LongSupplier nanoTime) {
+        this.windowNanos = window.toNanos();
+        this.batchSizes = batchSizes;
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public boolean test(String name, DataLoader<?, ?> dataLoader) {
+        int pending = dataLoader.dispatchDepth();
+        // nothing to wait for: dispatching does nothing and is not rescheduled
+        if (pending == 0 || pending >= batchSizes.applyAsInt(name)) {
+            waitingSince.remove(dataLoader);
+            return true;
+        }
+        long now = nanoTime.getAsLong();
+        if (now - waitingSince.computeIfAbsent(dataLoader, key -> now) >= windowNanos) {
+            waitingSince.remove(dataLoader);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,141 @@
+package org.francd.dispatch;
+
+import org.dataloader.BatchLoader;
+import org.dataloader.CacheMap;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderFactory;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.registries.ScheduledDataLoaderRegistry;
+import org.dataloader.stats.SimpleStatisticsCollector;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Builds the DataLoaders of each request, with the max batch size of their BatchSizeTuner, and keeps the
+ * batch statistics of the process.
+ *
+ * Without a batch window the registry is a plain DataLoaderRegistry: graphql-java dispatches it at the end
+ * of each level of the query. With a batch window it is a ScheduledDataLoaderRegistry, which dispatches a
+ * DataLoader only once the window has passed since it was first asked to, or once it holds a full batch
+ * (see BatchWindowPredicate); until then it checks again every half window. The keys queued meanwhile, mostly
+ * by the other operations of a batched HTTP request, go into the same batch. The checks run on one scheduler
+ * thread, shared by all the registries; the batch loaders still run on the fetcher executor.
+ *
+ * Each DataLoader counts its loads and batches (see DataLoaderUsageInstrumentation for the counts of a request).
+ */
+public class DataLoaderDispatch implements AutoCloseable {
+
+    private static final Duration MIN_CHECK_INTERVAL = Duration.ofMillis(1);
+
+    private final DispatchConfig config;
+    private final Map<String, BatchSizeTuner> tuners = new ConcurrentHashMap<>();
+    private final LongAdder operations = new LongAdder();
+    // null without a batch window
+    private final ScheduledExecutorService scheduler;
+    // where the batch windows are measured
+    private final LongSupplier nanoTime;
+
+    public DataLoaderDispatch(DispatchConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    DataLoaderDispatch(DispatchConfig config, LongSupplier nanoTime) {
+        this.config = config;
+        this.nanoTime = nanoTime;
+        if (config.hasBatchWindow()) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("dataloader-dispatch").daemon().factory());
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    public static DataLoaderDispatch defaults() {
+        return new DataLoaderDispatch(DispatchConfig.defaults());
+    }
+
+    public RegistryBuilder newRegistry() {
+        return new RegistryBuilder();
+    }
+
+    public DispatchConfig config() {
+        return config;
+    }
+
+    public Collection<BatchSizeTuner> tuners() {
+        return List.copyOf(tuners.values());
+    }
+
+    // operations executed with DataLoaders of this dispatch, counted by DataLoaderUsageInstrumentation
+    public void recordOperation() {
+        operations.increment();
+    }
+
+    public long operations() {
+        return operations.sum();
+    }
+
+    private BatchSizeTuner tunerFor(String name) {
+        BatchSizeTuner tuner = tuners.get(name);
+        return tuner != null ? tuner : tuners.computeIfAbsent(name,
+                key -> new BatchSizeTuner(key, config.minBatchSize(), config.maxBatchSize(key), config.autoTune()));
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public class RegistryBuilder {
+
+        private final Map<String, DataLoader<?, ?>> dataLoaders = new LinkedHashMap<>();
+
+        private RegistryBuilder() {
+        }
+
+        // cached for the request only
+        public <K, V> RegistryBuilder register(String name, BatchLoader<K, V> batchLoader) {
+            return register(name, batchLoader, null);
+        }
+
+        public <K, V> RegistryBuilder register(String name, BatchLoader<K, V> batchLoader, CacheMap<K, V> cacheMap) {
+            BatchSizeTuner tuner = tunerFor(name);
+            DataLoaderOptions options = DataLoaderOptions.newOptions()
+                    .setMaxBatchSize(tuner.batchSize())
+                    .setCachingEnabled(true)
+                    .setStatisticsCollector(SimpleStatisticsCollector::new);
+            if (cacheMap != null) {
+                options.setCacheMap(cacheMap);
+            }
+            dataLoaders.put(name, DataLoaderFactory.newDataLoader(tuner.timed(batchLoader), options));
+            return this;
+        }
+
+        public DataLoaderRegistry build() {
+            if (scheduler == null) {
+                DataLoaderRegistry registry = new DataLoaderRegistry();
+                dataLoaders.forEach(registry::register);
+                return registry;
+            }
+            Duration checkInterval = config.batchWindow().dividedBy(2);
+            ScheduledDataLoaderRegistry.Builder registry = ScheduledDataLoaderRegistry.newScheduledRegistry()
+                    .scheduledExecutorService(scheduler)
+                    .schedule(checkInterval.compareTo(MIN_CHECK_INTERVAL) < 0 ? MIN_CHECK_INTERVAL : checkInterval)
+                    .dispatchPredicate(new BatchWindowPredicate(config.batchWindow(), name -> tunerFor(name).batchSize(), nanoTime));
+            dataLoaders.forEach(registry::register);
+            return registry.build();
+        }
+    }
+}
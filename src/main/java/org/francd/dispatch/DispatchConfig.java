@@ -0,0 +1,73 @@
+package org.francd.dispatch;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * How the DataLoaders of a runtime batch and dispatch their keys, see DataLoaderDispatch.
+ *  - defaultMaxBatchSize: keys of one batch for a DataLoader without its own maxBatchSizes entry
+ *  - maxBatchSizes: keys of one batch, by DataLoader name. With autoTune it is where the tuning starts and
+ *    the most it can reach
+ *  - minBatchSize: the least autoTune can go down to
+ *  - batchWindow: how long a DataLoader waits for more keys before it dispatches, Duration.ZERO to dispatch
+ *    as soon as graphql-java asks for it (at the end of each level of the query)
+ *  - autoTune: whether the max batch sizes follow the latency of the batches, see BatchSizeTuner
+ */
+public record DispatchConfig(
+        int defaultMaxBatchSize,
+        Map<String, Integer> maxBatchSizes,
+        int minBatchSize,
+        Duration batchWindow,
+        boolean autoTune
+) {
+
+    public DispatchConfig {
+        if (minBatchSize < 1 || defaultMaxBatchSize < minBatchSize
+                || maxBatchSizes.values().stream().anyMatch(size -> size < minBatchSize)) {
+            throw new IllegalArgumentException("Invalid batch sizes: min=%d, default=%d, by loader=%s"
+                    .formatted(minBatchSize, defaultMaxBatchSize, maxBatchSizes));
+        }
+        if (batchWindow.isNegative()) {
+            throw new IllegalArgumentException("Negative batch window: " + batchWindow);
+        }
+        maxBatchSizes = Map.copyOf(maxBatchSizes);
+    }
+
+    /*
+     * The batch loaders bind all their keys as one array parameter, so a bigger batch is one SQL text and
+     * one round trip all the same: the cities and provinces of a whole continent fit in one batch.
+     */
+    public static DispatchConfig defaults() {
+        return new DispatchConfig(100,
+                Map.of(
+                        "City", 200,
+                        "Province", 200,
+                        // one key per country, but many rows per key
+                        "ProvincesOfCountry", 100
+                ),
+                10, Duration.ZERO, true);
+    }
+
+    public int maxBatchSize(String dataLoader) {
+        return maxBatchSizes.getOrDefault(dataLoader, defaultMaxBatchSize);
+    }
+
+    public boolean hasBatchWindow() {
+        return !batchWindow.isZero();
+    }
+
+    public DispatchConfig withMaxBatchSize(String dataLoader, int size) {
+        Map<String, Integer> sizes = new HashMap<>(maxBatchSizes);
+        sizes.put(dataLoader, size);
+        return new DispatchConfig(defaultMaxBatchSize, sizes, minBatchSize, batchWindow, autoTune);
+    }
+
+    public DispatchConfig withBatchWindow(Duration window) {
+        return new DispatchConfig(defaultMaxBatchSize, maxBatchSizes, minBatchSize, window, autoTune);
+    }
+
+    public DispatchConfig withAutoTune(boolean enabled) {
+        return new DispatchConfig(defaultMaxBatchSize, maxBatchSizes, minBatchSize, batchWindow, enabled);
+    }
+}
@@ -0,0 +1,153 @@
+package org.francd.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The executor that runs the blocking work of the fetchers and the batch loaders (JDBC calls),
+ * so that it never lands on the common ForkJoinPool.
+ *
+ * Two modes:
+ * - virtualThreads(): one virtual thread per task. Blocking on JDBC is cheap, so the limit is only
+ *   the number of tasks in flight (maxInFlight), which should stay close to the connection pool size.
+ * - bounded(): a fixed pool of platform threads with a bounded queue.
+ * In both modes a task beyond the limit is rejected straight away (RejectedExecutionException) rather
+ * than piling up: graphql-java reports it as an error on the field that needed it.
+ *
+ * It lives as long as the runtimes using it and is closed with the server.
+ */
+public class FetcherExecutor implements Executor, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FetcherExecutor.class);
+
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+
+    private final String name;
+    private final ExecutorService delegate;
+    // null for the bounded pool, the queue of the ThreadPoolExecutor is the limit
+    private final Semaphore inFlight;
+    private final int capacity;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private FetcherExecutor(String name, ExecutorService delegate, Semaphore inFlight, int capacity) {
+        this.name = name;
+        this.delegate = delegate;
+        this.inFlight = inFlight;
+        this.capacity = capacity;
+    }
+
+    public static FetcherExecutor virtualThreads(String name, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        LOGGER.info("Fetcher executor {} started - virtual threads, max in flight: {}", name, maxInFlight);
+        return new FetcherExecutor(name, executor, new Semaphore(maxInFlight), maxInFlight);
+    }
+
+    public static FetcherExecutor bounded(String name, int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("threads must be at least 1 and queueCapacity cannot be negative");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                queueCapacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name(name + "-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        LOGGER.info("Fetcher executor {} started - {} platform threads, queue: {}", name, threads, queueCapacity);
+        return new FetcherExecutor(name, executor, null, threads + queueCapacity);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (inFlight != null && !inFlight.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Fetcher executor %s saturated (%d tasks in flight)".formatted(name, capacity));
+        }
+        submitted.increment();
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    completed.increment();
+                    if (inFlight != null) {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            submitted.decrement();
+            if (inFlight != null) {
+                inFlight.release();
+            }
+            rejected.increment();
+            throw new RejectedExecutionException("Fetcher executor %s saturated (%d tasks in flight)".formatted(name, capacity), e);
+        }
+    }
+
+    /*
+     * Lets the running and queued tasks finish, then interrupts whatever is left after SHUTDOWN_TIMEOUT.
+     */
+    @Override
+    public void close() {
+        delegate.shutdown();
+        try {
+            if (!delegate.awaitTermination(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn("Fetcher executor {} - tasks still running after {}, interrupting them", name, SHUTDOWN_TIMEOUT);
+                delegate.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            delegate.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Fetcher executor {} stopped - completed: {}, rejected: {}", name, completed(), rejected());
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // tasks accepted and not finished yet, running or queued
+    public int inFlight() {
+        return (int) (submitted.sum() - completed.sum());
+    }
+
+    public int queued() {
+        return delegate instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // 0 when idle, 1 when the next task will be rejected
+    public double saturation() {
+        return Math.min(1.0, (double) inFlight() / capacity);
+    }
+
+    public long submitted() {
+        return submitted.sum();
+    }
+
+    public long completed() {
+        return completed.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,207 @@
+package org.francd.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.OperationDefinition;
+import graphql.language.Selection;
+import graphql.language.SelectionSet;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * A GraphQL selection over all the rows of a table, for the bulk export: "name population geoLocation { latitude }"
+ * over the cities gives one JSON object per city, shaped as the same selection in a query would be.
+ *
+ * Only what a row holds can be exported: the scalar fields, geoLocation, and the name of the province of a city
+ * or of the capital of a province (province { name }, the column is that name). Anything else, which would
+ * need another query per row, is rejected.
+ * The name pattern is the one of the places search: * for any sequence, every other character literal.
+ */
+public final class ExportQuery {
+
+    private enum Kind { STRING, INT, FLOAT }
+
+    // a field of the output, read from a column or made of sub-fields
+    private record Output(String field, String column, Kind kind, Map<String, Output> fields) {
+
+        static Output of(String field, String column, Kind kind) {
+            return new Output(field, column, kind, null);
+        }
+
+        static Output of(String field, Output... fields) {
+            Map<String, Output> byName = new LinkedHashMap<>();
+            for (Output output : fields) {
+                byName.put(output.field(), output);
+            }
+            return new Output(field, null, null, byName);
+        }
+
+        Output selecting(List<Output> selected) {
+            Map<String, Output> byName = new LinkedHashMap<>();
+            selected.forEach(output -> byName.put(output.field(), output));
+            return new Output(field, column, kind, byName);
+        }
+    }
+
+    private static final Map<String, Map<String, Output>> EXPORTABLE = Map.of(
+            "city", fields(
+                    Output.of("name", "name", Kind.STRING),
+                    Output.of("population", "population", Kind.INT),
+                    Output.of("latitude", "latitude", Kind.FLOAT),
+                    Output.of("longitude", "longitude", Kind.FLOAT),
+                    Output.of("geoLocation",
+                            Output.of("latitude", "latitude", Kind.FLOAT),
+                            Output.of("longitude", "longitude", Kind.FLOAT)),
+                    Output.of("elevation", "elevation", Kind.INT),
+                    Output.of("province", Output.of("name", "province", Kind.STRING))),
+            "province", fields(
+                    Output.of("name", "name", Kind.STRING),
+                    Output.of("population", "population", Kind.INT),
+                    Output.of("area", "area", Kind.INT),
+                    Output.of("capital", Output.of("name", "capital", Kind.STRING))));
+
+    private final String table;
+    private final List<Output> selection;
+    private final String namePattern;
+
+    private ExportQuery(String table, List<Output> selection, String namePattern) {
+        this.table = table;
+        this.selection = selection;
+        this.namePattern = namePattern;
+    }
+
+    /*
+     * table: city or province. namePattern: null for every row.
+     */
+    public static ExportQuery of(String table, String selection, String namePattern) {
+        Map<String, Output> exportable = EXPORTABLE.get(table);
+        if (exportable == null) {
+            throw new IllegalArgumentException("Unknown export: " + table);
+        }
+        SelectionSet selectionSet;
+        try {
+            Document document = Parser.parse("{ " + selection + " }");
+            selectionSet = document.getFirstDefinitionOfType(OperationDefinition.class).orElseThrow().getSelectionSet();
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Invalid selection: " + e.getMessage());
+        }
+        return new ExportQuery(table, select(selectionSet, exportable, table), namePattern);
+    }
+
+    private static List<Output> select(SelectionSet selectionSet, Map<String, Output> exportable, String path) {
+        List<Output> selected = new ArrayList<>();
+        for (Selection<?> selection : selectionSet.getSelections()) {
+            if (!(selection instanceof Field field) || field.getAlias() != null || !field.getArguments().isEmpty()) {
+                throw new IllegalArgumentException("Only plain fields can be exported, in " + path);
+            }
+            Output output = exportable.get(field.getName());
+            if (output == null) {
+                throw new IllegalArgumentException("%s.%s cannot be exported".formatted(path, field.getName()));
+            }
+            if ((output.fields() == null) != (field.getSelectionSet() == null)) {
+                throw new IllegalArgumentException(output.fields() == null
+                        ? "%s.%s has no sub-selection".formatted(path, field.getName())
+                        : "%s.%s needs a sub-selection".formatted(path, field.getName()));
+            }
+            selected.add(output.fields() == null
+                    ? output
+                    : output.selecting(select(field.getSelectionSet(), output.fields(), path + "." + field.getName())));
+        }
+        return selected;
+    }
+
+    public String sql() {
+        Set<String> columns = new LinkedHashSet<>();
+        collectColumns(selection, columns);
+        return "SELECT %s FROM %s%s".formatted(String.join(", ", columns), table,
+                namePattern == null ? "" : " WHERE name LIKE ?");
+    }
+
+    // the argument of the WHERE, when there is a name pattern
+    public String likePattern() {
+        return namePattern == null ? null : namePattern
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_")
+                .replace("*", "%");
+    }
+
+    /*
+     * The current row of the result as a JSON object, fields in the order of the selection.
+     */
+    public void writeRow(ResultSet row, JsonGenerator generator) throws IOException, SQLException {
+        writeObject(selection, row, generator);
+    }
+
+    private static void writeObject(Iterable<Output> outputs, ResultSet row, JsonGenerator generator) throws IOException, SQLException {
+        generator.writeStartObject();
+        for (Output output : outputs) {
+            generator.writeFieldName(output.field());
+            if (output.fields() == null) {
+                writeColumn(output, row, generator);
+            } else if (isNull(output.fields().values(), row)) {
+                // no province, no capital, no coordinates
+                generator.writeNull();
+            } else {
+                writeObject(output.fields().values(), row, generator);
+            }
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeColumn(Output output, ResultSet row, JsonGenerator generator) throws IOException, SQLException {
+        switch (output.kind()) {
+            case STRING -> generator.writeString(row.getString(output.column()));
+            case INT -> {
+                int value = row.getInt(output.column());
+                if (row.wasNull()) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(value);
+                }
+            }
+            case FLOAT -> {
+                double value = row.getDouble(output.column());
+                if (row.wasNull()) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(value);
+                }
+            }
+        }
+    }
+
+    private static boolean isNull(Iterable<Output> outputs, ResultSet row) throws SQLException {
+        for (Output output : outputs) {
+            if (output.fields() == null ? row.getObject(output.column()) != null : !isNull(output.fields().values(), row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void collectColumns(Iterable<Output> outputs, Set<String> columns) {
+        for (Output output : outputs) {
+            if (output.fields() == null) {
+                columns.add(output.column());
+            } else {
+                collectColumns(output.fields().values(), columns);
+            }
+        }
+    }
+
+    private static Map<String, Output> fields(Output... outputs) {
+        return Output.of(null, outputs).fields();
+    }
+}
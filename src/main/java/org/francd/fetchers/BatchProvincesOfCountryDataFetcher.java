@@ -0,0 +1,45 @@
+package org.francd.fetchers;
+
+import graphql.execution.ExecutionStepInfo;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
+import org.francd.batch.CountryProvincesKey;
+import org.francd.model.Country;
+import org.francd.model.Province;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class BatchProvincesOfCountryDataFetcher implements DataFetcher<CompletableFuture<List<Province>>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchProvincesOfCountryDataFetcher.class);
+
+    @Override
+    public CompletableFuture<List<Province>> get(DataFetchingEnvironment environment) throws Exception {
+        Country country = environment.getSource();
+        DataLoader<CountryProvincesKey, List<Province>> dataLoader = environment.getDataLoader("ProvincesOfCountry");
+
+        LOGGER.debug("dataLoader: provinces of country [{}]", country.name());
+
+        return dataLoader.load(CountryProvincesKey.of(country.code(), populationProvinceRange(environment)));
+    }
+
+    /*
+     * Country.provinces has no argument: the population range is the one of the criteria of the field
+     * that returned the country (countries or country), found going up the execution path.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Integer> populationProvinceRange(DataFetchingEnvironment environment) {
+        for (ExecutionStepInfo stepInfo = environment.getExecutionStepInfo().getParent(); stepInfo != null; stepInfo = stepInfo.getParent()) {
+            Map<String, Object> criteria = stepInfo.getArgument("criteria");
+            if (criteria != null) {
+                return (Map<String, Integer>) criteria.get("populationProvinceRange");
+            }
+        }
+        return null;
+    }
+}
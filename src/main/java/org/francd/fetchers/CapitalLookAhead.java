@@ -0,0 +1,49 @@
+package org.francd.fetchers;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
+import org.francd.db.Mapping;
+import org.francd.model.City;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/*
+ * Look-ahead for the capital of the countries and provinces a root fetcher returns.
+ *
+ * When the query selects capital { ... }, the fetcher joins the capital city in its own SQL and primes
+ * the "City" DataLoader with it: BatchCityDataFetcher then finds the city in the cache, and the batch
+ * round trip for the capitals is never made. Without a "City" DataLoader (async runtime) nothing is joined.
+ */
+final class CapitalLookAhead {
+
+    // the joined city must be aliased cap
+    static final String CAPITAL_COLUMNS = """
+            cap.name AS capital_name, cap.population AS capital_population, cap.latitude AS capital_latitude,
+            cap.longitude AS capital_longitude, cap.elevation AS capital_elevation, cap.province AS capital_province""";
+
+    private static final String PREFIX = "capital_";
+
+    private CapitalLookAhead() {
+    }
+
+    // null when there is nothing to prime: capital not selected or no DataLoader for the cities
+    static DataLoader<String, City> cityLoaderIfCapitalSelected(DataFetchingEnvironment environment) {
+        return cityLoaderIfCapitalSelected(environment, "");
+    }
+
+    // path: where the countries or provinces are in the selection, "edges/node/" for a connection
+    static DataLoader<String, City> cityLoaderIfCapitalSelected(DataFetchingEnvironment environment, String path) {
+        if (!environment.getSelectionSet().contains(path + "capital")) {
+            return null;
+        }
+        return environment.getDataLoaderRegistry().getDataLoader("City");
+    }
+
+    static void primeCapital(DataLoader<String, City> cityLoader, ResultSet result) throws SQLException {
+        if (cityLoader != null && result.getString(PREFIX + "name") != null) {
+            City capital = Mapping.cityOf(result, PREFIX);
+            cityLoader.prime(capital.name(), capital);
+        }
+    }
+}
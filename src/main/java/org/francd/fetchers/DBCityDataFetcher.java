@@ -3,10 +3,13 @@ package org.francd.fetchers;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import org.francd.db.Mapping;
+import org.francd.db.Projection;
+import org.francd.db.SqlShapeCache;
 import org.francd.model.City;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -16,31 +19,38 @@ public class DBCityDataFetcher<T> implements DataFetcher<City> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DBCityDataFetcher.class);
 
-    private final static String CITY_SQL = """
-                SELECT * FROM city WHERE name = ?
-                """;
-    private final Connection dbConnection;
+    // one SQL text per projection of the city columns
+    private static final SqlShapeCache CITY_SQL = SqlShapeCache.of("city", Projection.CITY.bits(),
+            projection -> "SELECT %s FROM city WHERE name = ?".formatted(Projection.CITY.columns(null, projection)));
+
+    private final DataSource dataSource;
     private final Function<T, String> cityNameExtractor;
 
-    public DBCityDataFetcher(Connection dbConnection, Function<T, String> cityNameExtractor) {
+    public DBCityDataFetcher(DataSource dataSource, Function<T, String> cityNameExtractor) {
         this.cityNameExtractor = cityNameExtractor;
-        this.dbConnection = dbConnection;
+        this.dataSource = dataSource;
     }
 
     @Override
     public City get(DataFetchingEnvironment environment) throws SQLException {
 
         var capitalName = cityNameExtractor.apply(environment.getSource());
-        var statement = dbConnection.prepareStatement(CITY_SQL);
-        statement.setString(1, capitalName);
-
-        LOGGER.info(CITY_SQL.replaceAll("[\\s\\n]+", " "));
-
-        ResultSet result = statement.executeQuery();
-        if (result.next()) {
-            return Mapping.cityOf(result);
+        int projection = Projection.CITY.of(environment.getSelectionSet());
+        String sql = CITY_SQL.sqlFor(projection);
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = connection.prepareStatement(sql)) {
+            statement.setString(1, capitalName);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(sql);
+            }
+
+            ResultSet result = statement.executeQuery();
+            if (result.next()) {
+                return Mapping.cityOf(result, projection);
+            }
+            return null;
         }
-        return null;
     }
 
 }
@@ -0,0 +1,55 @@
+package org.francd.fetchers;
+
+import graphql.relay.Connection;
+import graphql.relay.Edge;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
+import org.francd.db.Mapping;
+import org.francd.model.City;
+import org.francd.model.Country;
+import org.francd.pagination.PageRequest;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Query.countriesConnection: the countries of DBCountriesDataFetcher, a page at a time.
+ * The cursor of a country is its name and continent (a country on two continents is listed twice).
+ */
+public class DBCountriesConnectionDataFetcher implements DataFetcher<Connection<Country>> {
+
+    private static final String NODE = "edges/node/";
+
+    private final DataSource dataSource;
+
+    public DBCountriesConnectionDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Connection<Country> get(DataFetchingEnvironment environment) throws Exception {
+
+        Map<String, Object> criteria = environment.getArgument("criteria");
+        if (Objects.isNull(criteria)) {
+            throw new RuntimeException("Criteria cannot be null");
+        }
+        PageRequest page = PageRequest.of(environment, 2);
+        DataLoader<String, City> cityLoader = CapitalLookAhead.cityLoaderIfCapitalSelected(environment, NODE);
+        try (var connection = ReadConnections.of(environment, dataSource);
+             var statement = DBCountriesDataFetcher.queryWithCriteria(connection, criteria, cityLoader != null, page)) {
+            ResultSet results = statement.executeQuery();
+            List<Edge<Country>> edges = new ArrayList<>(page.limit());
+            while (results.next()) {
+                Country country = Mapping.countryOf(results);
+                CapitalLookAhead.primeCapital(cityLoader, results);
+                edges.add(PageRequest.edge(country, country.name(), results.getString("continent")));
+            }
+            return page.connectionOf(edges);
+        }
+    }
+}
@@ -2,13 +2,19 @@ package org.francd.fetchers;
 
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
 import org.francd.db.Mapping;
+import org.francd.db.Projection;
+import org.francd.db.SqlShapeCache;
 import org.francd.db.StateArgumentCollector;
 import org.francd.model.Continent;
+import org.francd.model.City;
 import org.francd.model.Country;
+import org.francd.pagination.PageRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -22,10 +28,10 @@ public class DBCountriesDataFetcher implements DataFetcher<List<Country>>  {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DBCountriesDataFetcher.class);
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
 
-    public DBCountriesDataFetcher(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBCountriesDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
@@ -35,49 +41,129 @@ public class DBCountriesDataFetcher implements DataFetcher<List<Country>>  {
         if (Objects.isNull(criteria)) {
             throw new RuntimeException("Criteria cannot be null");
         }
-        try (var statement = queryWithCriteria(criteria)) {
+        DataLoader<String, City> cityLoader = CapitalLookAhead.cityLoaderIfCapitalSelected(environment);
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = queryWithCriteria(connection, criteria, cityLoader != null)) {
             ResultSet results = statement.executeQuery();
             List<Country> mappedResults = new ArrayList<>();
             while (results.next()) {
                 Country country = Mapping.countryOf(results);
+                CapitalLookAhead.primeCapital(cityLoader, results);
                 mappedResults.add(country);
             }
             return mappedResults;
         }
     }
 
-    private PreparedStatement queryWithCriteria(Map<String, Object> criteria) throws SQLException {
+    // Criteria shape bits: which optional filters are present
+    private static final int CONTINENT = 1;
+    private static final int ABOVE = 2;
+    private static final int BELOW = 4;
+    // not a criterion: the capital is joined (see CapitalLookAhead)
+    private static final int CAPITAL = 8;
+    // not criteria either: a page of a connection, sorted on (name, continent), after a cursor or not
+    private static final int PAGE = 16;
+    private static final int AFTER = 32;
 
+    private static final SqlShapeCache COUNTRIES_SQL =
+            SqlShapeCache.of("countries", 6, DBCountriesDataFetcher::sqlForShape);
+
+    /*
+     * The whole country row, whatever the fields asked for: it is narrow, and a projection in the shape would
+     * multiply the 64 SQL texts by the 8 projections, past what the statement cache of a connection keeps.
+     */
+    private static String sqlForShape(int shape) {
+        String columns = Projection.COUNTRY.columns("c", Projection.COUNTRY.all());
+        if ((shape & PAGE) != 0) {
+            // a country on two continents is two rows: the continent is part of the key of the page
+            columns += ", e.continent";
+        }
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("""
-            SELECT *
-                FROM country c, encompasses e
-                WHERE
-                    c.code = e.country
-        """);
+        if ((shape & CAPITAL) != 0) {
+            stringBuilder.append("""
+                SELECT %s, %s
+                    FROM encompasses e, country c
+                        LEFT JOIN city cap
+                            ON cap.name = c.capital AND cap.country = c.code AND cap.province = c.province
+                    WHERE
+                        c.code = e.country
+            """.formatted(columns, CapitalLookAhead.CAPITAL_COLUMNS));
+        } else {
+            stringBuilder.append("""
+                SELECT %s
+                    FROM country c, encompasses e
+                    WHERE
+                        c.code = e.country
+            """.formatted(columns));
+        }
+        if ((shape & CONTINENT) != 0) {
+            stringBuilder.append(" AND e.continent = ?");
+        }
+        if ((shape & ABOVE) != 0) {
+            stringBuilder.append("  AND c.population >= ?");
+        }
+        if ((shape & BELOW) != 0) {
+            stringBuilder.append("  AND c.population <= ?");
+        }
+        if ((shape & AFTER) != 0) {
+            stringBuilder.append("  AND (c.name, e.continent) > (?, ?)");
+        }
+        if ((shape & PAGE) != 0) {
+            stringBuilder.append(" ORDER BY c.name, e.continent LIMIT ?");
+        }
+        return stringBuilder.toString();
+    }
 
+    // Shared with AsyncDBCountriesDataFetcher so both fetchers hit the same cached statements
+    static PreparedStatement queryWithCriteria(Connection connection, Map<String, Object> criteria) throws SQLException {
+        return queryWithCriteria(connection, criteria, false);
+    }
+
+    static PreparedStatement queryWithCriteria(Connection connection, Map<String, Object> criteria,
+                                               boolean withCapital) throws SQLException {
+        return queryWithCriteria(connection, criteria, withCapital, null);
+    }
+
+    // page: null for the whole list
+    static PreparedStatement queryWithCriteria(Connection connection, Map<String, Object> criteria,
+                                               boolean withCapital, PageRequest page) throws SQLException {
+
+        int shape = withCapital ? CAPITAL : 0;
         StateArgumentCollector collector = new StateArgumentCollector();
 
         Continent continent = (Continent)criteria.get("continent");
         if (continent != null) {
-            stringBuilder.append(" AND e.continent = ?");
+            shape |= CONTINENT;
             collector.addString(continent.dbName());
         }
         @SuppressWarnings("unchecked")
         Map<String, Integer> populationRange = (Map<String, Integer>) criteria.get("populationCountryRange");
         if (populationRange != null) {
-            if (populationRange.containsKey("above")) {
-                stringBuilder.append("  AND c.population >= ?");
+            if (populationRange.get("above") != null) {
+                shape |= ABOVE;
                 collector.addInt(populationRange.get("above"));
-            }if (populationRange.containsKey("below")) {
-                stringBuilder.append("  AND c.population <= ?");
+            }
+            if (populationRange.get("below") != null) {
+                shape |= BELOW;
                 collector.addInt(populationRange.get("below"));
             }
         }
+        if (page != null) {
+            shape |= PAGE;
+            if (page.hasAfter()) {
+                shape |= AFTER;
+                collector.addString(page.after().get(0));
+                collector.addString(page.after().get(1));
+            }
+            collector.addInt(page.limit());
+        }
 
-        var statement = dbConnection.prepareStatement(stringBuilder.toString());
+        String sql = COUNTRIES_SQL.sqlFor(shape);
+        var statement = connection.prepareStatement(sql);
         collector.applyTo(statement);
-        LOGGER.info(stringBuilder.toString().trim().replaceAll("[\\s\\n]+", " "));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(sql.trim().replaceAll("[\\s\\n]+", " "));
+        }
         return statement;
     }
 }
@@ -2,10 +2,14 @@ package org.francd.fetchers;
 
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
 import org.francd.db.Mapping;
+import org.francd.db.Projection;
 import org.francd.db.StateArgumentCollector;
+import org.francd.model.City;
 import org.francd.model.Country;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -15,10 +19,10 @@ import java.util.Objects;
 
 public class DBOneCountryDataFetcher implements DataFetcher<Country>  {
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
 
-    public DBOneCountryDataFetcher(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBOneCountryDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
@@ -28,34 +32,49 @@ public class DBOneCountryDataFetcher implements DataFetcher<Country>  {
         if (Objects.isNull(criteria)) {
             throw new RuntimeException("Criteria cannot be null");
         }
-        try (var statement = queryWithCriteria(criteria)) {
+        DataLoader<String, City> cityLoader = CapitalLookAhead.cityLoaderIfCapitalSelected(environment);
+        int projection = Projection.COUNTRY.of(environment.getSelectionSet());
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = queryWithCriteria(connection, criteria, cityLoader != null, projection)) {
             ResultSet result = statement.executeQuery();
             if (result.next()) {
-                return Mapping.countryOf(result);
+                CapitalLookAhead.primeCapital(cityLoader, result);
+                return Mapping.countryOf(result, projection);
             }
             return null;
         }
     }
 
-    private PreparedStatement queryWithCriteria(Map<String, Object> criteria) throws SQLException {
+    private PreparedStatement queryWithCriteria(Connection connection, Map<String, Object> criteria,
+                                                boolean withCapital, int projection) throws SQLException {
 
+        String columns = Projection.COUNTRY.columns("c", projection);
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("""
-            SELECT *
-            FROM country c
-        """);
+        if (withCapital) {
+            stringBuilder.append("""
+                SELECT %s, %s
+                FROM country c
+                    LEFT JOIN city cap
+                        ON cap.name = c.capital AND cap.country = c.code AND cap.province = c.province
+            """.formatted(columns, CapitalLookAhead.CAPITAL_COLUMNS));
+        } else {
+            stringBuilder.append("""
+                SELECT %s
+                FROM country c
+            """.formatted(columns));
+        }
 
         StateArgumentCollector collector = new StateArgumentCollector();
 
         String country = criteria.get("country").toString();
         if (country != null) {
-            stringBuilder.append(" WHERE name = ?");
+            stringBuilder.append(" WHERE c.name = ?");
             collector.addString(country);
         } else {
             throw new RuntimeException("You must select a country!");
         }
 
-        var statement = dbConnection.prepareStatement(stringBuilder.toString());
+        var statement = connection.prepareStatement(stringBuilder.toString());
         collector.applyTo(statement);
         return statement;
     }
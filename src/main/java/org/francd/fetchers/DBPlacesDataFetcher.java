@@ -3,8 +3,11 @@ package org.francd.fetchers;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import org.francd.db.Mapping;
+import org.francd.db.Projection;
+import org.francd.db.SqlShapeCache;
 import org.francd.model.Place;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -12,30 +15,38 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
 
 public class DBPlacesDataFetcher implements DataFetcher<List<Place>>  {
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
 
-    public DBPlacesDataFetcher(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBPlacesDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
     public List<Place> get(DataFetchingEnvironment environment) throws Exception {
 
         Map<String, Object> criteria = environment.getArgument("criteria");
+        // one projection per type: the fields of the inline fragments (... on City { elevation }) count too.
+        // Each is the keys or the whole row: 8 SQL texts rather than one per combination of fields (1024)
+        int cityProjection = Projection.CITY.keysOrAll(Projection.CITY.of(environment.getSelectionSet()));
+        int provinceProjection = Projection.PROVINCE.keysOrAll(Projection.PROVINCE.of(environment.getSelectionSet()));
+        int countryProjection = Projection.COUNTRY.keysOrAll(Projection.COUNTRY.of(environment.getSelectionSet()));
 
         List<Place> mappedResults = new ArrayList<>();
-        try (var statement = queryWithCriteria(criteria)) {
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = queryWithCriteria(connection, criteria,
+                     cityProjection | provinceProjection << PROVINCE_SHIFT | countryProjection << COUNTRY_SHIFT)) {
             ResultSet results = statement.executeQuery();
 
             while (results.next()) {
                 var type = results.getString("type");
                 Place place = switch (type) {
-                    case "Country" -> Mapping.countryOf(results);
-                    case "Province" -> Mapping.provinceOf(results);
-                    case "City" -> Mapping.cityOf(results);
+                    case "Country" -> Mapping.countryOf(results, countryProjection);
+                    case "Province" -> Mapping.provinceOf(results, provinceProjection);
+                    case "City" -> Mapping.cityOf(results, cityProjection);
                     default -> throw new RuntimeException("What are you doing man?! What type is that? %s".formatted(type));
                 };
                 mappedResults.add(place);
@@ -44,26 +55,51 @@ public class DBPlacesDataFetcher implements DataFetcher<List<Place>>  {
         }
     }
 
-    private PreparedStatement queryWithCriteria(Map<String, Object> criteria) throws SQLException {
+    // The shape is the three projections side by side: city, province, country
+    private static final int PROVINCE_SHIFT = Projection.CITY.bits();
+    private static final int COUNTRY_SHIFT = PROVINCE_SHIFT + Projection.PROVINCE.bits();
 
-        String unionQuery = """
+    private static final SqlShapeCache PLACES_SQL = SqlShapeCache.of("places",
+            COUNTRY_SHIFT + Projection.COUNTRY.bits(), DBPlacesDataFetcher::sqlForShape);
+
+    // the columns of the union: each branch selects those of its table in the projection, null for the others
+    private static final List<String> PLACE_COLUMNS =
+            List.of("code", "name", "province", "elevation", "latitude", "longitude", "area", "capital", "population");
+
+    private static String sqlForShape(int shape) {
+        int cityProjection = shape & Projection.CITY.all();
+        int provinceProjection = (shape >>> PROVINCE_SHIFT) & Projection.PROVINCE.all();
+        int countryProjection = shape >>> COUNTRY_SHIFT;
+        // UNION ALL: a place is a row of one table only, there is nothing to deduplicate
+        return """
             WITH place AS (
-                    SELECT 'City' as type, null as code, name, province, elevation, latitude, longitude, null as area, null as capital, population
-                    FROM city c
-                UNION
-                    SELECT 'Province' as type, null as code, name, null as province, null as elevation, null as latitude, null as longitude, area, capital, population
-                    FROM province
-                UNION
-                    SELECT 'Country' as type, code, name, null as province, null as elevation, null as latitude, null as longitude, area, capital, population
-                    FROM country
+                    %s
+                UNION ALL
+                    %s
+                UNION ALL
+                    %s
              )
              SELECT *
              FROM place
                 WHERE name like ?
-        """;
+        """.formatted(
+                branch("City", "city", Projection.CITY, cityProjection),
+                branch("Province", "province", Projection.PROVINCE, provinceProjection),
+                branch("Country", "country", Projection.COUNTRY, countryProjection));
+    }
+
+    private static String branch(String type, String table, Projection projection, int mask) {
+        StringJoiner select = new StringJoiner(", ", "SELECT '%s' as type, ".formatted(type), " FROM " + table);
+        for (String column : PLACE_COLUMNS) {
+            select.add(projection.selects(mask, column) ? column : "null as " + column);
+        }
+        return select.toString();
+    }
+
+    private PreparedStatement queryWithCriteria(Connection connection, Map<String, Object> criteria, int shape) throws SQLException {
 
         String namePattern = (String)criteria.get("name");
-        var statement = dbConnection.prepareStatement(unionQuery);
+        var statement = connection.prepareStatement(PLACES_SQL.sqlFor(shape));
         statement.setString(1, namePattern.replaceAll("%","%%").replaceAll("[*]","%"));
         return statement;
     }
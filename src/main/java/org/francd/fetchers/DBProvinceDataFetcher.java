@@ -8,6 +8,7 @@ import org.francd.model.Province;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.ResultSet;
 
@@ -21,10 +22,10 @@ public class DBProvinceDataFetcher implements DataFetcher<Province>  {
                 WHERE name = ?
                 """;
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
 
-    public DBProvinceDataFetcher(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBProvinceDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
@@ -32,16 +33,18 @@ public class DBProvinceDataFetcher implements DataFetcher<Province>  {
 
         City capital = environment.getSource();
         String provinceName = capital.province();
-        var statement = dbConnection.prepareStatement(PROVINCE_SQL);
-        statement.setString(1, provinceName);
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = connection.prepareStatement(PROVINCE_SQL)) {
+            statement.setString(1, provinceName);
 
-        LOGGER.info(PROVINCE_SQL.replaceAll("[\\s\\n]+", " "));
+            LOGGER.info(PROVINCE_SQL.replaceAll("[\\s\\n]+", " "));
 
-        ResultSet result = statement.executeQuery();
-        if (result.next()) {
-            return Mapping.provinceOf(result);
+            ResultSet result = statement.executeQuery();
+            if (result.next()) {
+                return Mapping.provinceOf(result);
+            }
+            return null;
         }
-        return null;
     }
 
 }
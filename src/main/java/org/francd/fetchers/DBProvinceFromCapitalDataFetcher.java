@@ -8,6 +8,7 @@ import org.francd.model.Province;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.ResultSet;
 
@@ -22,26 +23,28 @@ public class DBProvinceFromCapitalDataFetcher implements DataFetcher<Province>
                     p.capital = ?
                 """;
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
 
-    public DBProvinceFromCapitalDataFetcher(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBProvinceFromCapitalDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
     public Province get(DataFetchingEnvironment environment) throws Exception {
 
         City capital = environment.getSource();
-        var statement = dbConnection.prepareStatement(PROVINCE_SQL);
-        statement.setString(1, capital.name());
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = connection.prepareStatement(PROVINCE_SQL)) {
+            statement.setString(1, capital.name());
 
-        LOGGER.info(PROVINCE_SQL.replaceAll("[\\s\\n]+", " "));
+            LOGGER.info(PROVINCE_SQL.replaceAll("[\\s\\n]+", " "));
 
-        ResultSet result = statement.executeQuery();
-        if (result.next()) {
-            return Mapping.provinceOf(result);
+            ResultSet result = statement.executeQuery();
+            if (result.next()) {
+                return Mapping.provinceOf(result);
+            }
+            return null;
         }
-        return null;
     }
 
 }
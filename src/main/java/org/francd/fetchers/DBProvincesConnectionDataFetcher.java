@@ -0,0 +1,57 @@
+package org.francd.fetchers;
+
+import graphql.relay.Connection;
+import graphql.relay.Edge;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
+import org.francd.db.Mapping;
+import org.francd.model.City;
+import org.francd.model.Province;
+import org.francd.pagination.PageRequest;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Query.provincesConnection: the provinces of a country of DBProvincesOfCountryDataFetcher, a page at a time.
+ * The cursor of a province is its name.
+ */
+public class DBProvincesConnectionDataFetcher implements DataFetcher<Connection<Province>> {
+
+    private static final String NODE = "edges/node/";
+
+    private final DataSource dataSource;
+
+    public DBProvincesConnectionDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Connection<Province> get(DataFetchingEnvironment environment) throws Exception {
+
+        // a copy: the argument map belongs to graphql-java
+        Map<String, Object> criteria = new HashMap<>();
+        Map<String, Object> argument = environment.getArgument("criteria");
+        if (argument != null) {
+            criteria.putAll(argument);
+        }
+        PageRequest page = PageRequest.of(environment, 1);
+        DataLoader<String, City> cityLoader = CapitalLookAhead.cityLoaderIfCapitalSelected(environment, NODE);
+        try (var connection = ReadConnections.of(environment, dataSource);
+             var statement = DBProvincesOfCountryDataFetcher.queryWithCriteria(connection, criteria, cityLoader != null, page)) {
+            ResultSet results = statement.executeQuery();
+            List<Edge<Province>> edges = new ArrayList<>(page.limit());
+            while (results.next()) {
+                Province province = Mapping.provinceOf(results);
+                CapitalLookAhead.primeCapital(cityLoader, results);
+                edges.add(PageRequest.edge(province, province.name()));
+            }
+            return page.connectionOf(edges);
+        }
+    }
+}
@@ -2,18 +2,24 @@ package org.francd.fetchers;
 
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.DataLoader;
 import org.francd.db.Mapping;
+import org.francd.db.SqlShapeCache;
 import org.francd.db.StateArgumentCollector;
+import org.francd.model.City;
 import org.francd.model.Country;
 import org.francd.model.Province;
+import org.francd.pagination.PageRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,80 +28,132 @@ public class DBProvincesOfCountryDataFetcher implements DataFetcher<List<Provinc
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DBProvincesOfCountryDataFetcher.class);
 
-    private final Connection dbConnection;
+    private final DataSource dataSource;
 
-    public DBProvincesOfCountryDataFetcher(Connection dbConnection) {
-        this.dbConnection = dbConnection;
+    public DBProvincesOfCountryDataFetcher(DataSource dataSource) {
+        this.dataSource = dataSource;
     }
 
     @Override
     public List<Province> get(DataFetchingEnvironment environment) throws Exception {
 
-        Map<String, Object> criteria = environment.getArgument("criteria");  // It comes null. Why???
-        if (environment.getVariables().containsKey("criteria")) {
-            criteria = (Map<String, Object>) environment.getVariables().get("criteria");
-        }
-
+        // a copy: the argument map belongs to graphql-java
+        Map<String, Object> criteria = new HashMap<>();
         Country country = environment.getSource();
         if (country != null) {
+            // Country.provinces has no argument, the range comes from the criteria of its parent
             criteria.put("country", country.name());
+            criteria.put("populationProvinceRange", BatchProvincesOfCountryDataFetcher.populationProvinceRange(environment));
+        } else {
+            Map<String, Object> argument = environment.getArgument("criteria");
+            if (argument != null) {
+                criteria.putAll(argument);
+            }
         }
 
-        try (var statement = queryWithCriteria(criteria)) {
+        DataLoader<String, City> cityLoader = CapitalLookAhead.cityLoaderIfCapitalSelected(environment);
+        try (Connection connection = ReadConnections.of(environment, dataSource);
+             var statement = queryWithCriteria(connection, criteria, cityLoader != null, null)) {
             ResultSet result = statement.executeQuery();
 
             List<Province> mappedResults = new ArrayList<>();
-            StringBuilder provincesOfCountry = new StringBuilder();
-            provincesOfCountry.append("provinces: [");
-
             while (result.next()) {
-                Province province = Mapping.provinceOf(result);
-                mappedResults.add(province);
-                provincesOfCountry.append(province.name()).append(",");
+                mappedResults.add(Mapping.provinceOf(result));
+                CapitalLookAhead.primeCapital(cityLoader, result);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("provinces: {}", mappedResults.stream().map(Province::name).toList());
             }
-            provincesOfCountry.deleteCharAt(provincesOfCountry.length()-1).append("]");
-            LOGGER.info(provincesOfCountry.toString());
-
             return mappedResults;
         }
     }
 
 
-    private PreparedStatement queryWithCriteria(Map<String, Object> criteria) throws SQLException {
+    // Criteria shape bits: which optional population filters are present
+    private static final int ABOVE = 1;
+    private static final int BELOW = 2;
+    // not a criterion: the capital is joined (see CapitalLookAhead)
+    private static final int CAPITAL = 4;
+    // not criteria either: a page of a connection, sorted on the name, after a cursor or not
+    private static final int PAGE = 8;
+    private static final int AFTER = 16;
+
+    private static final SqlShapeCache PROVINCES_SQL =
+            SqlShapeCache.of("provincesOfCountry", 5, DBProvincesOfCountryDataFetcher::sqlForShape);
 
+    private static String sqlForShape(int shape) {
         StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("""
-            SELECT p.name, p.capital, p.area, p.population
-            FROM country c
-                INNER JOIN province p
-                    ON p.country = c.code
-        """);
+        if ((shape & CAPITAL) != 0) {
+            stringBuilder.append("""
+                SELECT p.name, p.capital, p.area, p.population, %s
+                FROM country c
+                    INNER JOIN province p
+                        ON p.country = c.code
+                    LEFT JOIN city cap
+                        ON cap.name = p.capital AND cap.country = p.country AND cap.province = p.name
+                WHERE c.name = ?
+            """.formatted(CapitalLookAhead.CAPITAL_COLUMNS));
+        } else {
+            stringBuilder.append("""
+                SELECT p.name, p.capital, p.area, p.population
+                FROM country c
+                    INNER JOIN province p
+                        ON p.country = c.code
+                WHERE c.name = ?
+            """);
+        }
+        if ((shape & ABOVE) != 0) {
+            stringBuilder.append("  AND p.population >= ?");
+        }
+        if ((shape & BELOW) != 0) {
+            stringBuilder.append("  AND p.population <= ?");
+        }
+        // the name is unique within a country
+        if ((shape & AFTER) != 0) {
+            stringBuilder.append("  AND p.name > ?");
+        }
+        if ((shape & PAGE) != 0) {
+            stringBuilder.append(" ORDER BY p.name LIMIT ?");
+        }
+        return stringBuilder.toString();
+    }
 
+    // page: null for the whole list
+    static PreparedStatement queryWithCriteria(Connection connection, Map<String, Object> criteria,
+                                               boolean withCapital, PageRequest page) throws SQLException {
+
+        int shape = withCapital ? CAPITAL : 0;
         StateArgumentCollector collector = new StateArgumentCollector();
 
-        String country = criteria.get("country").toString();
-        LOGGER.info("country: {}", country);
+        Object country = criteria.get("country");
         if (country != null) {
-            stringBuilder.append(" WHERE c.name = ?");
-            collector.addString(country);
+            collector.addString(country.toString());
         } else {
             throw new RuntimeException("You must select a country!");
         }
 
         Map<String, Integer> populationRange = (Map<String, Integer>) criteria.get("populationProvinceRange");
         if (populationRange != null) {
-            if (populationRange.containsKey("above")) {
-                stringBuilder.append("  AND p.population >= ?");
+            if (populationRange.get("above") != null) {
+                shape |= ABOVE;
                 collector.addInt(populationRange.get("above"));
-            }if (populationRange.containsKey("below")) {
-                stringBuilder.append("  AND p.population <= ?");
+            }
+            if (populationRange.get("below") != null) {
+                shape |= BELOW;
                 collector.addInt(populationRange.get("below"));
             }
         }
+        if (page != null) {
+            shape |= PAGE;
+            if (page.hasAfter()) {
+                shape |= AFTER;
+                collector.addString(page.after().getFirst());
+            }
+            collector.addInt(page.limit());
+        }
 
-        var statement = dbConnection.prepareStatement(stringBuilder.toString());
+        var statement = connection.prepareStatement(PROVINCES_SQL.sqlFor(shape));
         collector.applyTo(statement);
-        //LOGGER.info(stringBuilder.toString().trim().replaceAll("[\\s\\n]+", " "));
         return statement;
     }
 
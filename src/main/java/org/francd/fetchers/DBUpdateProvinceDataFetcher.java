@@ -2,11 +2,14 @@ package org.francd.fetchers;
 
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
+import org.francd.cache.EntityCache;
 import org.francd.db.ProvinceDao;
 import org.francd.model.Province;
+import org.francd.search.PlaceIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.util.Map;
 
@@ -16,10 +19,14 @@ public class DBUpdateProvinceDataFetcher implements DataFetcher<Province> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DBUpdateProvinceDataFetcher.class);
 
-    private final Connection connection;
+    private final DataSource dataSource;
+    private final EntityCache<String, Province> provinceCache;
+    private final PlaceIndex placeIndex;
 
-    public DBUpdateProvinceDataFetcher(Connection connection) {
-        this.connection = connection;
+    public DBUpdateProvinceDataFetcher(DataSource dataSource, EntityCache<String, Province> provinceCache, PlaceIndex placeIndex) {
+        this.dataSource = dataSource;
+        this.provinceCache = provinceCache;
+        this.placeIndex = placeIndex;
     }
 
     @Override
@@ -35,24 +42,31 @@ public class DBUpdateProvinceDataFetcher implements DataFetcher<Province> {
             throw new RuntimeException("name field missing!!!");
         }
 
-        //fetch the existing province
-        Province existing = findByName(connection, name)
-                .orElseThrow(() -> new IllegalArgumentException("Province '" + name + "' not found"));
-        LOGGER.info("Province found: {}", existing.name());
-
-        //modify province
-        Province updated = new Province(
-                existing.name(),
-                input.containsKey("population") ?  (Integer) input.get("population") : existing.population(),
-                existing.capital(),
-                input.containsKey("area") ?  (Integer) input.get("area") : existing.area()
-        );
-
-        //persist the changes
-        ProvinceDao.update(connection, updated);
-
-        LOGGER.info("Province updated: {}", updated);
-        //return the updated object
-        return updated;
+        //one leased connection for both the lookup and the update
+        try (Connection connection = dataSource.getConnection()) {
+            //fetch the existing province
+            Province existing = findByName(connection, name)
+                    .orElseThrow(() -> new IllegalArgumentException("Province '" + name + "' not found"));
+            LOGGER.info("Province found: {}", existing.name());
+
+            //modify province
+            Province updated = new Province(
+                    existing.name(),
+                    input.containsKey("population") ?  (Integer) input.get("population") : existing.population(),
+                    existing.capital(),
+                    input.containsKey("area") ?  (Integer) input.get("area") : existing.area()
+            );
+
+            //persist the changes
+            ProvinceDao.update(connection, updated);
+            //write through, so the next requests don't read the old figures from the shared cache
+            provinceCache.put(updated.name(), updated);
+            //and the places search returns the new figures too
+            placeIndex.update(updated);
+
+            LOGGER.info("Province updated: {}", updated);
+            //return the updated object
+            return updated;
+        }
     }
 }
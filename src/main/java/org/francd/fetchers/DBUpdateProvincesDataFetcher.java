@@ -0,0 +1,122 @@
+package org.francd.fetchers;
+
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import org.francd.cache.EntityCache;
+import org.francd.db.ProvinceDao;
+import org.francd.db.ProvinceDao.FiguresUpdate;
+import org.francd.model.Province;
+import org.francd.model.ProvinceUpdateResult;
+import org.francd.search.PlaceIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * updateProvinces: all the updates in one transaction, as one JDBC batch (see ProvinceDao.updateFigures).
+ *
+ * An update of an unknown province is reported in its result and the others go on. When the batch fails as
+ * a whole (a row the database rejects aborts the transaction in PostgreSQL), it is rolled back to where it
+ * started and the updates are applied one by one, each behind its own savepoint: the rejected ones are
+ * reported, the others committed. The shared province cache and the places search only see the updates
+ * once they are committed.
+ */
+public class DBUpdateProvincesDataFetcher implements DataFetcher<List<ProvinceUpdateResult>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DBUpdateProvincesDataFetcher.class);
+
+    // a census sync sends a few thousand, the transaction holds a lock on every updated row until the end
+    static final int MAX_UPDATES = 10_000;
+
+    private final DataSource dataSource;
+    private final EntityCache<String, Province> provinceCache;
+    private final PlaceIndex placeIndex;
+
+    public DBUpdateProvincesDataFetcher(DataSource dataSource, EntityCache<String, Province> provinceCache, PlaceIndex placeIndex) {
+        this.dataSource = dataSource;
+        this.provinceCache = provinceCache;
+        this.placeIndex = placeIndex;
+    }
+
+    @Override
+    public List<ProvinceUpdateResult> get(DataFetchingEnvironment env) throws Exception {
+        //arguments supplied by the mutation: a list of ProvinceUpdate maps
+        List<Map<String, Object>> input = env.getArgument("input");
+        if (input.size() > MAX_UPDATES) {
+            throw new IllegalArgumentException("At most %d province updates at a time, got %d".formatted(MAX_UPDATES, input.size()));
+        }
+        // only the name and the figures: the capital is never updated
+        List<FiguresUpdate> updates = input.stream().map(FiguresUpdate::of).toList();
+
+        long start = System.nanoTime();
+        List<ProvinceUpdateResult> results;
+        try (Connection connection = dataSource.getConnection()) {
+            // the pool rolls back and restores autocommit on release if we don't get to the commit
+            connection.setAutoCommit(false);
+            results = apply(connection, updates);
+            connection.commit();
+        }
+
+        for (ProvinceUpdateResult result : results) {
+            if (result.province() != null) {
+                //write through, so the next requests don't read the old figures from the shared cache
+                provinceCache.put(result.name(), result.province());
+                placeIndex.update(result.province());
+            }
+        }
+        LOGGER.info("Provinces updated - {} of {} in {} ms", results.stream().filter(result -> result.error() == null).count(),
+                updates.size(), (System.nanoTime() - start) / 1_000_000);
+        return results;
+    }
+
+    private static List<ProvinceUpdateResult> apply(Connection connection, List<FiguresUpdate> updates) throws SQLException {
+        Savepoint beforeBatch = connection.setSavepoint();
+        try {
+            List<List<Province>> updated = ProvinceDao.updateFigures(connection, updates);
+            List<ProvinceUpdateResult> results = new ArrayList<>(updates.size());
+            for (int i = 0; i < updates.size(); i++) {
+                results.add(resultOf(updates.get(i), updated.get(i)));
+            }
+            return results;
+        } catch (BatchUpdateException e) {
+            LOGGER.warn("Batch of {} province updates failed, applying them one by one: {}", updates.size(), e.getMessage());
+            connection.rollback(beforeBatch);
+        }
+
+        List<ProvinceUpdateResult> results = new ArrayList<>(updates.size());
+        for (FiguresUpdate update : updates) {
+            Savepoint beforeUpdate = connection.setSavepoint();
+            try {
+                results.add(resultOf(update, ProvinceDao.updateFigures(connection, List.of(update)).getFirst()));
+                connection.releaseSavepoint(beforeUpdate);
+            } catch (SQLException e) {
+                connection.rollback(beforeUpdate);
+                String reason = reasonOf(e);
+                LOGGER.info("Province {} not updated: {}", update.name(), reason);
+                results.add(ProvinceUpdateResult.failed(update.name(), reason));
+            }
+        }
+        return results;
+    }
+
+    // a failed batch entry wraps the error of the database with the SQL text
+    private static String reasonOf(SQLException e) {
+        SQLException cause = e.getNextException();
+        return cause != null ? cause.getMessage() : e.getMessage();
+    }
+
+    // provinces of different countries may share a name: they are all updated, the first one is returned
+    private static ProvinceUpdateResult resultOf(FiguresUpdate update, List<Province> updated) {
+        return updated.isEmpty()
+                ? ProvinceUpdateResult.failed(update.name(), "Province '" + update.name() + "' not found")
+                : ProvinceUpdateResult.updated(updated.getFirst());
+    }
+}
@@ -0,0 +1,43 @@
+package org.francd.fetchers;
+
+import graphql.relay.Connection;
+import graphql.relay.Edge;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import org.francd.model.Place;
+import org.francd.pagination.PageRequest;
+import org.francd.search.PlaceIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Query.placesConnection: the places search of IndexedPlacesDataFetcher, a page at a time.
+ * The cursor of a place is its name and type, the order of the PlaceIndex.
+ */
+public class IndexedPlacesConnectionDataFetcher implements DataFetcher<Connection<Place>> {
+
+    private final PlaceIndex placeIndex;
+
+    public IndexedPlacesConnectionDataFetcher(PlaceIndex placeIndex) {
+        this.placeIndex = placeIndex;
+    }
+
+    @Override
+    public Connection<Place> get(DataFetchingEnvironment environment) {
+        Map<String, Object> criteria = environment.getArgument("criteria");
+        if (criteria == null || criteria.get("name") == null) {
+            throw new IllegalArgumentException("The places search needs a name");
+        }
+        PageRequest page = PageRequest.of(environment, 2);
+        String afterName = page.hasAfter() ? page.after().get(0) : null;
+        String afterType = page.hasAfter() ? page.after().get(1) : null;
+        List<Place> places = placeIndex.search(criteria.get("name").toString(), afterName, afterType, page.limit());
+        List<Edge<Place>> edges = new ArrayList<>(places.size());
+        for (Place place : places) {
+            edges.add(PageRequest.edge(place, place.name(), PlaceIndex.typeOf(place)));
+        }
+        return page.connectionOf(edges);
+    }
+}
@@ -0,0 +1,31 @@
+package org.francd.fetchers;
+
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import org.francd.model.Place;
+import org.francd.search.PlaceIndex;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The places search answered from the PlaceIndex: no connection is leased, no table is scanned.
+ * DBPlacesDataFetcher does the same search in SQL, with a LIKE over the union of the three tables.
+ */
+public class IndexedPlacesDataFetcher implements DataFetcher<List<Place>> {
+
+    private final PlaceIndex placeIndex;
+
+    public IndexedPlacesDataFetcher(PlaceIndex placeIndex) {
+        this.placeIndex = placeIndex;
+    }
+
+    @Override
+    public List<Place> get(DataFetchingEnvironment environment) {
+        Map<String, Object> criteria = environment.getArgument("criteria");
+        if (criteria == null || criteria.get("name") == null) {
+            throw new IllegalArgumentException("The places search needs a name");
+        }
+        return placeIndex.search(criteria.get("name").toString());
+    }
+}
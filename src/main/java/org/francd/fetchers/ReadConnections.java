@@ -0,0 +1,26 @@
+package org.francd.fetchers;
+
+import graphql.schema.DataFetchingEnvironment;
+import org.francd.db.routing.RoutingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/*
+ * The connection a query fetcher reads with.
+ *
+ * From a replica when the runtime routes its reads (see RoutingDataSource), from the primary when the request
+ * is pinned to it (read-your-writes) and from the DataSource itself when it doesn't route. The mutation
+ * fetchers keep dataSource.getConnection(): a RoutingDataSource gives them the primary.
+ */
+final class ReadConnections {
+
+    private ReadConnections() {
+    }
+
+    static Connection of(DataFetchingEnvironment environment, DataSource dataSource) throws SQLException {
+        boolean pinned = Boolean.TRUE.equals(environment.getGraphQlContext().get(RoutingDataSource.PINNED_TO_PRIMARY));
+        return RoutingDataSource.readsOf(dataSource, pinned).getConnection();
+    }
+}
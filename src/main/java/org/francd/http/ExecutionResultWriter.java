@@ -0,0 +1,120 @@
+package org.francd.http;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Writes an ExecutionResult as JSON straight to an OutputStream, in the order of toSpecification():
+ * errors, data, extensions.
+ *
+ * The result tree (maps, lists and scalar values) is walked and written token by token with a JsonGenerator,
+ * so neither the specification map nor the whole JSON String is ever built. With the buffered response
+ * stream of Jetty the bytes go into pooled buffers, and a payload bigger than one buffer is sent chunked.
+ */
+public class ExecutionResultWriter {
+
+    private final ObjectMapper mapper;
+    // for the values that are not plain JSON (rare: error extensions, custom scalars...)
+    private final ObjectWriter fallbackWriter;
+
+    public ExecutionResultWriter(ObjectMapper mapper) {
+        this.mapper = mapper;
+        // flushing after each value would push a tiny chunk to the network every time
+        this.fallbackWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /*
+     * Closes the stream when done, which completes the response.
+     */
+    public void write(ExecutionResult result, OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            writeResult(generator, result);
+        }
+    }
+
+    /*
+     * The results of a batch as one JSON array, in the order of the list. Closes the stream when done.
+     */
+    public void writeAll(List<ExecutionResult> results, OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            for (ExecutionResult result : results) {
+                writeResult(generator, result);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /*
+     * A result in its specification form (the parts of an incremental response), leaving the stream open.
+     */
+    public void writeSpecification(Map<String, Object> specification, OutputStream out) throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeValue(generator, specification);
+        }
+    }
+
+    private void writeResult(JsonGenerator generator, ExecutionResult result) throws IOException {
+        generator.writeStartObject();
+        if (!result.getErrors().isEmpty()) {
+            generator.writeFieldName("errors");
+            generator.writeStartArray();
+            for (GraphQLError error : result.getErrors()) {
+                writeValue(generator, error.toSpecification());
+            }
+            generator.writeEndArray();
+        }
+        if (result.isDataPresent()) {
+            generator.writeFieldName("data");
+            writeValue(generator, result.getData());
+        }
+        if (result.getExtensions() != null) {
+            generator.writeFieldName("extensions");
+            writeValue(generator, result.getExtensions());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        switch (value) {
+            case null -> generator.writeNull();
+            case String string -> generator.writeString(string);
+            case Integer number -> generator.writeNumber(number);
+            case Long number -> generator.writeNumber(number);
+            case Double number -> generator.writeNumber(number);
+            case Float number -> generator.writeNumber(number);
+            case BigDecimal number -> generator.writeNumber(number);
+            case BigInteger number -> generator.writeNumber(number);
+            case Boolean bool -> generator.writeBoolean(bool);
+            case Map<?, ?> map -> {
+                generator.writeStartObject();
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    generator.writeFieldName(String.valueOf(entry.getKey()));
+                    writeValue(generator, entry.getValue());
+                }
+                generator.writeEndObject();
+            }
+            case Iterable<?> iterable -> {
+                generator.writeStartArray();
+                for (Object element : iterable) {
+                    writeValue(generator, element);
+                }
+                generator.writeEndArray();
+            }
+            default -> fallbackWriter.writeValue(generator, value);
+        }
+    }
+}
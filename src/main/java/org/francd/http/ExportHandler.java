@@ -0,0 +1,130 @@
+package org.francd.http;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Fields;
+import org.francd.export.ExportQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * GET /export/cities and /export/provinces: every row of the table as NDJSON (one JSON object per line),
+ * streamed while it is read.
+ *   ?selection=name population geoLocation { latitude longitude }   (see ExportQuery, "name" by default)
+ *   &name=Ma*                                                       (optional, as in the places search)
+ *
+ * The rows are read through a server-side cursor: autocommit off and a fetch size, so the driver holds
+ * fetchSize rows at a time, never the whole result. Each row is written to the buffered response stream
+ * as soon as it is read, and a write blocks when the client reads slower than we write: the next rows are
+ * only fetched once the socket has drained. Memory stays the same for a thousand or ten million rows.
+ *
+ * An export runs on the export executor, so that it never holds a Jetty thread nor a fetcher slot, and the
+ * executor limits how many run at once: one more gets a 503. Any method but GET gets a 405.
+ */
+public class ExportHandler extends Handler.Abstract {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportHandler.class);
+
+    private static final String NDJSON = "application/x-ndjson";
+    private static final Map<String, String> TABLES = Map.of("/cities", "city", "/provinces", "province");
+
+    private final DataSource dataSource;
+    private final Executor exportExecutor;
+    private final int fetchSize;
+    // one row per line: no separator of Jackson between the root values, the rows end with a newline
+    private final JsonFactory jsonFactory = new JsonFactory().setRootValueSeparator(null);
+
+    public ExportHandler(DataSource dataSource, Executor exportExecutor, int fetchSize) {
+        this.dataSource = dataSource;
+        this.exportExecutor = exportExecutor;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) {
+        // an export only reads: any other method is refused before a connection is leased
+        if (!HttpMethod.GET.is(request.getMethod())) {
+            response.getHeaders().put(HttpHeader.ALLOW, HttpMethod.GET.asString());
+            Response.writeError(request, response, callback, HttpStatus.METHOD_NOT_ALLOWED_405, "An export is a GET");
+            return true;
+        }
+        String table = TABLES.get(Request.getPathInContext(request));
+        if (table == null) {
+            Response.writeError(request, response, callback, HttpStatus.NOT_FOUND_404, "Unknown export");
+            return true;
+        }
+        Fields parameters = Request.extractQueryParameters(request);
+        ExportQuery query;
+        try {
+            query = ExportQuery.of(table, parameters.getValue("selection") == null ? "name" : parameters.getValue("selection"),
+                    parameters.getValue("name"));
+        } catch (IllegalArgumentException e) {
+            Response.writeError(request, response, callback, HttpStatus.BAD_REQUEST_400, e.getMessage());
+            return true;
+        }
+        try {
+            exportExecutor.execute(() -> export(request, response, callback, table, query));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Export of {} rejected: too many exports running", table);
+            Response.writeError(request, response, callback, HttpStatus.SERVICE_UNAVAILABLE_503, "Too many exports running");
+        }
+        return true;
+    }
+
+    private void export(Request request, Response response, Callback callback, String table, ExportQuery query) {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            // the driver only uses a cursor inside a transaction, the pool restores autocommit on release
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (PreparedStatement statement = connection.prepareStatement(query.sql(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                if (query.likePattern() != null) {
+                    statement.setString(1, query.likePattern());
+                }
+                try (ResultSet results = statement.executeQuery()) {
+                    response.setStatus(HttpStatus.OK_200);
+                    response.getHeaders().put(HttpHeader.CONTENT_TYPE, NDJSON);
+                    OutputStream out = Response.asBufferedOutputStream(request, response);
+                    try (JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8)) {
+                        while (results.next()) {
+                            query.writeRow(results, generator);
+                            generator.writeRaw('\n');
+                            rows++;
+                        }
+                    }
+                }
+            }
+            connection.commit();
+            LOGGER.info("Export of {} - {} rows in {} ms", table, rows, (System.nanoTime() - start) / 1_000_000);
+            callback.succeeded();
+        } catch (Exception e) {
+            LOGGER.error("Export of {} failed after {} rows", table, rows, e);
+            if (response.isCommitted()) {
+                // too late for a status: the client sees a truncated stream
+                callback.failed(e);
+            } else {
+                Response.writeError(request, response, callback, HttpStatus.INTERNAL_SERVER_ERROR_500, "Export failed");
+            }
+        }
+    }
+}
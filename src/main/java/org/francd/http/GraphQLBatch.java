@@ -0,0 +1,14 @@
+package org.francd.http;
+
+import java.util.List;
+
+/*
+ * The operations of one HTTP request: a JSON array of requests is a batch, answered by an array of results
+ * in the same order; anything else is a single operation, answered by a single result.
+ */
+public record GraphQLBatch(List<GraphQLRequest> requests, boolean batched) {
+
+    public static GraphQLBatch single(GraphQLRequest request) {
+        return new GraphQLBatch(List.of(request), false);
+    }
+}
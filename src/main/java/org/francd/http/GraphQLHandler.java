@@ -2,23 +2,33 @@ package org.francd.http;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import graphql.ExecutionResult;
-import org.apache.logging.log4j.core.util.IOUtils;
+import graphql.incremental.IncrementalExecutionResult;
+import graphql.language.Document;
 import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.MimeTypes;
-import org.eclipse.jetty.io.Content;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.util.Callback;
+import org.dataloader.DataLoaderRegistry;
 import org.francd.AsyncGraphQLRuntime;
 import org.francd.GraphQLRuntime;
+import org.francd.cache.BoundedPersistedQueryCache;
+import org.francd.db.routing.RoutingDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 public class GraphQLHandler extends Handler.Abstract {
@@ -26,71 +36,226 @@ public class GraphQLHandler extends Handler.Abstract {
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphQLHandler.class);
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutionResultWriter resultWriter = new ExecutionResultWriter(mapper);
+    private final IncrementalResultWriter incrementalResultWriter = new IncrementalResultWriter(resultWriter);
+    private final GraphQLRequestDecoder requestDecoder;
 
     private GraphQLRuntime graphQLRuntime;
     private AsyncGraphQLRuntime asyncGraphQLRuntime;
 
     public GraphQLHandler(GraphQLRuntime graphQLRuntime) {
+        this(graphQLRuntime, GraphQLRequestDecoder.DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public GraphQLHandler(GraphQLRuntime graphQLRuntime, int maxBodyBytes) {
         this.graphQLRuntime = graphQLRuntime;
+        this.requestDecoder = new GraphQLRequestDecoder(mapper, maxBodyBytes);
     }
 
     public GraphQLHandler(AsyncGraphQLRuntime asyncGraphQLRuntime) {
+        this(asyncGraphQLRuntime, GraphQLRequestDecoder.DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public GraphQLHandler(AsyncGraphQLRuntime asyncGraphQLRuntime, int maxBodyBytes) {
         this.asyncGraphQLRuntime = asyncGraphQLRuntime;
+        this.requestDecoder = new GraphQLRequestDecoder(mapper, maxBodyBytes);
     }
 
+    /*
+     * The execution is started and handle() returns straight away: the Jetty thread goes back to the pool
+     * while the fetchers and the DataLoaders work, and the callback is completed once the result is written.
+     *
+     * Status codes: 415 for a content type we can't read, 413 for a body over maxBodyBytes, 405 for a mutation
+     * sent with GET (see GraphQLRequestDecoder.fromQueryParameters()), 400 for a body
+     * we can't parse or a request rejected before execution (syntax, validation, unknown persisted query...),
+     * 500 if the execution itself fails. Field errors of an executed request still get a 200 with the partial data.
+     *
+     * A client accepting multipart/mixed gets @defer honored: the non deferred fields first, then the deferred
+     * fragments as they complete (see IncrementalResultWriter). For any other client @defer is ignored.
+     *
+     * A JSON array of requests is a batch: its operations run concurrently with one set of DataLoaders, and
+     * the response is the array of their results, in the same order, with a 200 (each result says whether its
+     * operation failed). @defer is ignored in a batch.
+     */
     @Override
     public boolean handle(Request httpRequest, Response response, Callback callback) throws Exception {
-        GraphQLRequest graphQLRequest = graphqlRequestFromHttp(httpRequest);
-        String permissionsStr = Optional.ofNullable(httpRequest.getHeaders().get("X-Permissions")).orElse("");
-        var permissions = Arrays.stream(permissionsStr.split(",")).map(String::trim).collect(Collectors.toSet());
-
-        ExecutionResult executionResult = null;
-        if (graphQLRuntime != null) {
-            LOGGER.info("--- START Execution standard query ---------------------------------------------------------");
-            executionResult = graphQLRuntime.execute(graphQLRequest.query(), graphQLRequest.variables(), graphQLRequest.operationName(), permissions);
-            LOGGER.info("--- END Execution standard query -----------------------------------------------------------");
-        }
-        if (asyncGraphQLRuntime != null) {
-            LOGGER.info("--- START Execution ASYNC query ------------------------------------------------------------");
-            executionResult = asyncGraphQLRuntime.execute(graphQLRequest.query(), graphQLRequest.variables(), graphQLRequest.operationName(), permissions);
-            LOGGER.info("--- END Execution ASYNC query --------------------------------------------------------------");
-        }
         if (graphQLRuntime == null && asyncGraphQLRuntime == null) {
             return false;
         }
 
-        Content.Sink.write(response, true, mapper.writeValueAsString(executionResult.toSpecification()), callback);
+        // the body is read without blocking, the execution starts once it is all there
+        requestDecoder.decode(httpRequest).whenComplete((batch, error) -> {
+            if (error != null) {
+                rejectRequest(httpRequest, response, callback, error instanceof CompletionException ? error.getCause() : error);
+            } else if (batch.batched()) {
+                executeBatch(httpRequest, response, callback, batch.requests());
+            } else {
+                try {
+                    requireQueryIfHashOnlyGet(httpRequest, batch.requests().getFirst());
+                } catch (GraphQLRequestDecoder.MethodNotAllowedException e) {
+                    rejectRequest(httpRequest, response, callback, e);
+                    return;
+                }
+                execute(httpRequest, response, callback, batch.requests().getFirst());
+            }
+        });
         return true;
     }
 
-    private GraphQLRequest graphqlRequestFromHttp(Request httpRequest) throws IOException {
+    private void rejectRequest(Request httpRequest, Response response, Callback callback, Throwable error) {
+        switch (error) {
+            case UnsupportedOperationException e ->
+                    Response.writeError(httpRequest, response, callback, HttpStatus.UNSUPPORTED_MEDIA_TYPE_415, e.getMessage());
+            case GraphQLRequestDecoder.MethodNotAllowedException e -> {
+                response.getHeaders().put(HttpHeader.ALLOW, HttpMethod.POST.asString());
+                Response.writeError(httpRequest, response, callback, HttpStatus.METHOD_NOT_ALLOWED_405, e.getMessage());
+            }
+            case GraphQLRequestDecoder.BodyTooLargeException e ->
+                    Response.writeError(httpRequest, response, callback, HttpStatus.PAYLOAD_TOO_LARGE_413, e.getMessage());
+            default -> {
+                LOGGER.debug("Unreadable GraphQL request", error);
+                Response.writeError(httpRequest, response, callback, HttpStatus.BAD_REQUEST_400, "Unreadable GraphQL request");
+            }
+        }
+    }
+
+    /*
+     * The decoder checks the operation of a GET with its query text. A hash-only GET names a document persisted
+     * by an earlier request, possibly a POSTed mutation: it is checked here. A hash we don't know yet executes
+     * to a PersistedQueryNotFound, and the client sends the text again.
+     */
+    private void requireQueryIfHashOnlyGet(Request httpRequest, GraphQLRequest graphQLRequest) {
+        if (!HttpMethod.GET.is(httpRequest.getMethod()) || graphQLRequest.query() != null || graphQLRequest.extensions() == null
+                || !(graphQLRequest.extensions().get("persistedQuery") instanceof Map<?, ?> persistedQuery)) {
+            return;
+        }
+        BoundedPersistedQueryCache persistedQueries = graphQLRuntime != null
+                ? graphQLRuntime.persistedQueryCache() : asyncGraphQLRuntime.persistedQueryCache();
+        Object hash = persistedQuery.get("sha256Hash");
+        Document document = hash == null ? null : persistedQueries.documentOf(hash);
+        if (document != null) {
+            GraphQLRequestDecoder.requireQuery(document, graphQLRequest.operationName());
+        }
+    }
+
+    private void execute(Request httpRequest, Response response, Callback callback, GraphQLRequest graphQLRequest) {
+        var permissions = permissionsOf(httpRequest);
+        boolean incrementalDelivery = acceptsMultipart(httpRequest);
 
-        var contentType = httpRequest.getHeaders().get(HttpHeader.CONTENT_TYPE);
-        var mimeType = MimeTypes.getBaseType(contentType);
-        var charset = Optional.ofNullable(MimeTypes.getCharsetFromContentType(contentType))
-                .orElse(StandardCharsets.UTF_8.name());
+        CompletableFuture<ExecutionResult> executionResult;
+        if (graphQLRuntime != null) {
+            LOGGER.debug("--- START Execution standard query ---------------------------------------------------------");
+            executionResult = graphQLRuntime.executeAsync(graphQLRequest.query(), graphQLRequest.variables(), graphQLRequest.operationName(),
+                    graphQLRequest.extensions(), permissions, incrementalDelivery);
+        } else {
+            LOGGER.debug("--- START Execution ASYNC query ------------------------------------------------------------");
+            executionResult = asyncGraphQLRuntime.executeAsync(graphQLRequest.query(), graphQLRequest.variables(), graphQLRequest.operationName(),
+                    graphQLRequest.extensions(), permissions, incrementalDelivery);
+        }
+        // written by a server thread: the fetcher thread that completed the execution goes back to its executor
+        executionResult.whenCompleteAsync((result, error) -> writeResult(httpRequest, response, callback, result, error),
+                httpRequest.getComponents().getExecutor());
+    }
 
-        if (mimeType == null) {
-            throw new UnsupportedOperationException("Don't know how to handle %s".formatted(contentType));
+    /*
+     * Every operation is started before any is waited for, all with the same registry: a city or a province
+     * asked by several operations is fetched once, and the keys queued by all of them are dispatched together.
+     * The root fetchers of both runtimes run on the fetcher executor, so starting an operation only parses
+     * (or finds in the document cache) and validates it: the next one starts before the first one's rows are read.
+     * The shared DataLoaders read from the primary as soon as one operation asks for read-your-writes.
+     */
+    private void executeBatch(Request httpRequest, Response response, Callback callback, List<GraphQLRequest> graphQLRequests) {
+        var permissions = permissionsOf(httpRequest);
+        boolean readYourWrites = graphQLRequests.stream().anyMatch(graphQLRequest -> RoutingDataSource.readYourWrites(graphQLRequest.extensions()));
+        List<CompletableFuture<ExecutionResult>> executionResults = new ArrayList<>(graphQLRequests.size());
+        if (graphQLRuntime != null) {
+            LOGGER.debug("--- START Execution standard batch of {} operations -----------------------------------------", graphQLRequests.size());
+            DataLoaderRegistry dataLoaderRegistry = graphQLRuntime.newDataLoaderRegistry(readYourWrites);
+            for (GraphQLRequest graphQLRequest : graphQLRequests) {
+                executionResults.add(graphQLRuntime.executeAsync(graphQLRequest.query(), graphQLRequest.variables(),
+                        graphQLRequest.operationName(), graphQLRequest.extensions(), permissions, dataLoaderRegistry));
+            }
+        } else {
+            LOGGER.debug("--- START Execution ASYNC batch of {} operations --------------------------------------------", graphQLRequests.size());
+            DataLoaderRegistry dataLoaderRegistry = asyncGraphQLRuntime.newDataLoaderRegistry(readYourWrites);
+            for (GraphQLRequest graphQLRequest : graphQLRequests) {
+                executionResults.add(asyncGraphQLRuntime.executeAsync(graphQLRequest.query(), graphQLRequest.variables(),
+                        graphQLRequest.operationName(), graphQLRequest.extensions(), permissions, dataLoaderRegistry));
+            }
         }
+        CompletableFuture.allOf(executionResults.toArray(CompletableFuture[]::new))
+                .whenCompleteAsync((done, error) -> writeResults(httpRequest, response, callback,
+                        error == null ? executionResults.stream().map(CompletableFuture::join).toList() : null, error),
+                        httpRequest.getComponents().getExecutor());
+    }
 
-        InputStream is = Content.Source.asInputStream(httpRequest);
-        Reader httpRequestReader = new InputStreamReader(is, charset);
-        return switch (mimeType.getBaseType().asString()) {
-            case "application/graphql" -> unmarshalGraphQLRequest(httpRequestReader);
-            case "application/json" -> unmarshalJSONRequest(httpRequestReader);
-            default -> throw new UnsupportedOperationException("Don't know how to handle %s".formatted(contentType));
-        };
+    private void writeResult(Request httpRequest, Response response, Callback callback, ExecutionResult result, Throwable error) {
+        if (error != null) {
+            LOGGER.error("GraphQL execution failed", error);
+            Response.writeError(httpRequest, response, callback, HttpStatus.INTERNAL_SERVER_ERROR_500);
+            return;
+        }
+        LOGGER.debug("--- END Execution query ---------------------------------------------------------------------");
+        if (result instanceof IncrementalExecutionResult incrementalResult) {
+            writeIncrementalResult(httpRequest, response, callback, incrementalResult);
+            return;
+        }
+        // no data at all means the request never got to execution
+        response.setStatus(result.isDataPresent() ? HttpStatus.OK_200 : HttpStatus.BAD_REQUEST_400);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, MimeTypes.Type.APPLICATION_JSON_UTF_8.asString());
+        /*
+         * Streamed into the pooled buffers of the response: a result bigger than the output buffer is sent
+         * chunked while the rest is being written. The writes block only if the client reads slower than we
+         * write, and this runs on a thread of the server, never on a fetcher thread.
+         */
+        try {
+            resultWriter.write(result, Response.asBufferedOutputStream(httpRequest, response));
+            callback.succeeded();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not write the GraphQL result", e);
+            callback.failed(e);
+        }
+    }
 
+    private void writeResults(Request httpRequest, Response response, Callback callback, List<ExecutionResult> results, Throwable error) {
+        if (error != null) {
+            LOGGER.error("GraphQL batch execution failed", error);
+            Response.writeError(httpRequest, response, callback, HttpStatus.INTERNAL_SERVER_ERROR_500);
+            return;
+        }
+        LOGGER.debug("--- END Execution batch ----------------------------------------------------------------------");
+        response.setStatus(HttpStatus.OK_200);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, MimeTypes.Type.APPLICATION_JSON_UTF_8.asString());
+        try {
+            resultWriter.writeAll(results, Response.asBufferedOutputStream(httpRequest, response));
+            callback.succeeded();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not write the GraphQL batch results", e);
+            callback.failed(e);
+        }
     }
 
-    private GraphQLRequest unmarshalJSONRequest(Reader jsonContent) throws IOException {
-        return mapper.readValue(jsonContent, GraphQLRequest.class);
+    private void writeIncrementalResult(Request httpRequest, Response response, Callback callback, IncrementalExecutionResult result) {
+        response.setStatus(HttpStatus.OK_200);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, IncrementalResultWriter.CONTENT_TYPE);
+        incrementalResultWriter.write(result, Response.asBufferedOutputStream(httpRequest, response), httpRequest.getComponents().getExecutor())
+                .whenComplete((done, error) -> {
+                    if (error != null) {
+                        LOGGER.error("Could not write the incremental GraphQL result", error);
+                        callback.failed(error);
+                    } else {
+                        callback.succeeded();
+                    }
+                });
+    }
+
+    private static Set<String> permissionsOf(Request httpRequest) {
+        String permissionsStr = Optional.ofNullable(httpRequest.getHeaders().get("X-Permissions")).orElse("");
+        return Arrays.stream(permissionsStr.split(",")).map(String::trim).collect(Collectors.toSet());
     }
 
-    private GraphQLRequest unmarshalGraphQLRequest(Reader graphQLcontent) throws IOException {
-        StringWriter writer = new StringWriter();
-        IOUtils.copy(graphQLcontent, writer);
-        return new GraphQLRequest(writer.toString(), null, null);
+    private static boolean acceptsMultipart(Request httpRequest) {
+        String accept = httpRequest.getHeaders().get(HttpHeader.ACCEPT);
+        return accept != null && accept.contains("multipart/mixed");
     }
 }
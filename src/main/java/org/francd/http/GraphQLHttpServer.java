@@ -3,27 +3,97 @@ package org.francd.http;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.eclipse.jetty.util.component.LifeCycle;
 import org.francd.AsyncGraphQLRuntime;
 import org.francd.GraphQLRuntime;
+import org.francd.cache.EntityCaches;
+import org.francd.db.pool.ConnectionPool;
+import org.francd.db.pool.ConnectionPoolConfig;
+import org.francd.db.routing.RoutingConfig;
+import org.francd.db.routing.RoutingDataSource;
+import org.francd.dispatch.DataLoaderDispatch;
+import org.francd.dispatch.DispatchConfig;
+import org.francd.executor.FetcherExecutor;
+import org.francd.instrumentation.QueryBudget;
+import org.francd.metrics.MetricsCollector;
+import org.francd.metrics.MetricsCollectors;
+import org.francd.search.PlaceIndex;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class GraphQLHttpServer {
 
     private static final int HTTP_PORT = 8080;
 
+    // each export holds a connection for as long as the client reads
+    private static final int MAX_EXPORTS_IN_FLIGHT = 4;
+    private static final int EXPORT_FETCH_SIZE = 1_000;
+
     public static void main(String[] args) throws Exception {
 
-        // Set up the DB
-        Connection dbConnection = DriverManager.getConnection(
+        // Set up the DB: every fetcher leases its own connection from the pool
+        ConnectionPool connectionPool = new ConnectionPool(ConnectionPoolConfig.of(
                 "jdbc:postgresql://localhost:5432/mondial",
                 "postgres",
                 "postgres789"
-        );
+        )
+                // use a server-side prepared statement from the first execution: the SQL texts are
+                // stable (see SqlShapeCache) so each connection parses and plans every query shape once
+                .withConnectionProperty("prepareThreshold", "1")
+                .withConnectionProperty("preparedStatementCacheQueries", "256")
+                // -Ddb.leakDetectionMillis=20000 in development: every lease then records where it was taken
+                .withLeakDetectionThreshold(Duration.ofMillis(Long.getLong("db.leakDetectionMillis", 0))));
+
+        // Read replicas of the same database, -Ddb.replicaUrls=jdbc:postgresql://replica1:5432/mondial,... : the
+        // queries, batch loaders and exports read from them, the mutations write to the primary (see RoutingDataSource)
+        Map<String, ConnectionPool> replicaPools = new LinkedHashMap<>();
+        String replicaUrls = System.getProperty("db.replicaUrls", "");
+        for (String replicaUrl : replicaUrls.split(",")) {
+            if (!replicaUrl.isBlank()) {
+                replicaPools.put("replica-" + (replicaPools.size() + 1), new ConnectionPool(ConnectionPoolConfig.of(
+                        replicaUrl.strip(),
+                        "postgres",
+                        "postgres789"
+                )
+                        .withConnectionProperty("prepareThreshold", "1")
+                        .withConnectionProperty("preparedStatementCacheQueries", "256")));
+            }
+        }
+        RoutingDataSource dataSource = RoutingDataSource.of(connectionPool, replicaPools, RoutingConfig.defaults()
+                .withMaxReplicationLag(Duration.ofMillis(Long.getLong("db.maxReplicationLagMillis", 5_000))));
+
+        // Cities and provinces loaded by one request are reused by the next ones
+        EntityCaches entityCaches = EntityCaches.defaults();
+
+        // Blocking JDBC work of the fetchers and batch loaders: virtual threads by default,
+        // -Dfetcher.executor=bounded for a fixed pool of platform threads. Each task holds at most one connection,
+        // so the tasks running or waiting stop at the connections there are; past that, fetches fail fast
+        // instead of queueing for a lease
+        int maxFetchesInFlight = connectionPool.maxSize()
+                + replicaPools.values().stream().mapToInt(ConnectionPool::maxSize).sum();
+        int fetcherThreads = Math.min(2 * Runtime.getRuntime().availableProcessors(), maxFetchesInFlight);
+        FetcherExecutor fetcherExecutor = "bounded".equals(System.getProperty("fetcher.executor"))
+                ? FetcherExecutor.bounded("fetcher", fetcherThreads, maxFetchesInFlight - fetcherThreads)
+                : FetcherExecutor.virtualThreads("fetcher", maxFetchesInFlight);
+        // The streaming exports, apart so that they never take the slots of the fetchers
+        FetcherExecutor exportExecutor = FetcherExecutor.virtualThreads("export", MAX_EXPORTS_IN_FLIGHT);
 
-        GraphQLRuntime graphQLRuntime = new GraphQLRuntime(dbConnection);
-        AsyncGraphQLRuntime asyncGraphQLRuntime = new AsyncGraphQLRuntime(dbConnection);
+        // The places search of both runtimes, loaded once at startup
+        PlaceIndex placeIndex = PlaceIndex.load(dataSource.reads());
+
+        // Batch sizes of the DataLoaders, tuned on the latency of the batches. -Ddataloader.batchWindowMillis=2 to
+        // wait that long for more keys before a dispatch (see DataLoaderDispatch)
+        DataLoaderDispatch dataLoaderDispatch = new DataLoaderDispatch(DispatchConfig.defaults()
+                .withBatchWindow(Duration.ofMillis(Long.getLong("dataloader.batchWindowMillis", 0))));
+
+        GraphQLRuntime graphQLRuntime = new GraphQLRuntime(dataSource, entityCaches, placeIndex, fetcherExecutor,
+                QueryBudget.defaults(), dataLoaderDispatch);
+        AsyncGraphQLRuntime asyncGraphQLRuntime = new AsyncGraphQLRuntime(dataSource, entityCaches, placeIndex, fetcherExecutor,
+                QueryBudget.defaults(), dataLoaderDispatch);
 
         // Set up the HTTP server
         Server server = new Server(HTTP_PORT);
@@ -32,8 +102,41 @@ public class GraphQLHttpServer {
         contextHandlerCollection.addHandler(new ContextHandler(new GraphiQLHandler(), "/"));
         contextHandlerCollection.addHandler(new ContextHandler(new GraphQLHandler(graphQLRuntime), "/graphql"));
         contextHandlerCollection.addHandler(new ContextHandler(new GraphQLHandler(asyncGraphQLRuntime), "/graphql/async"));
+        contextHandlerCollection.addHandler(new ContextHandler(new ExportHandler(dataSource.reads(), exportExecutor, EXPORT_FETCH_SIZE), "/export"));
+        List<MetricsCollector> metricsCollectors = new ArrayList<>(List.of(
+                MetricsCollectors.fieldLatencies("sync", graphQLRuntime.fieldLatencies()),
+                MetricsCollectors.fieldLatencies("async", asyncGraphQLRuntime.fieldLatencies()),
+                MetricsCollectors.fetcherCounters("sync", graphQLRuntime.fetcherCounters()),
+                MetricsCollectors.fetcherCounters("async", asyncGraphQLRuntime.fetcherCounters()),
+                MetricsCollectors.documentCaches("sync", graphQLRuntime.documentCache(), graphQLRuntime.persistedQueryCache()),
+                MetricsCollectors.documentCaches("async", asyncGraphQLRuntime.documentCache(), asyncGraphQLRuntime.persistedQueryCache()),
+                MetricsCollectors.dataLoaders(dataLoaderDispatch),
+                MetricsCollectors.entityCaches(entityCaches),
+                MetricsCollectors.placeIndex(placeIndex),
+                MetricsCollectors.connectionPool(connectionPool),
+                MetricsCollectors.readReplicas(dataSource),
+                MetricsCollectors.fetcherExecutor(fetcherExecutor),
+                MetricsCollectors.fetcherExecutor(exportExecutor),
+                MetricsCollectors.sqlShapes()
+        ));
+        replicaPools.forEach((name, pool) -> metricsCollectors.add(MetricsCollectors.connectionPool(name, pool)));
+        contextHandlerCollection.addHandler(new ContextHandler(new MetricsHandler(metricsCollectors), "/metrics"));
         server.setHandler(contextHandlerCollection);
 
+        // Let the running fetches finish, then release the DB connections when the server stops (also on Ctrl+C)
+        server.setStopAtShutdown(true);
+        server.addEventListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStopped(LifeCycle event) {
+                dataLoaderDispatch.close();
+                fetcherExecutor.close();
+                exportExecutor.close();
+                dataSource.close();
+                replicaPools.values().forEach(ConnectionPool::close);
+                connectionPool.close();
+            }
+        });
+
         // Start the HTTP server
         server.start();
         server.join();
@@ -2,5 +2,9 @@ package org.francd.http;
 
 import java.util.Map;
 
-public record GraphQLRequest(String query, Map<String, Object> variables, String operationName) {
+public record GraphQLRequest(String query, Map<String, Object> variables, String operationName, Map<String, Object> extensions) {
+
+    public GraphQLRequest(String query, Map<String, Object> variables, String operationName) {
+        this(query, variables, operationName, null);
+    }
 }
@@ -0,0 +1,265 @@
+package org.francd.http;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.language.Document;
+import graphql.language.OperationDefinition;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.io.RetainableByteBuffer;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.Promise;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Reads a GraphQLRequest out of an HTTP request without blocking.
+ *
+ * The body chunks are gathered by Jetty into a single pooled heap buffer (at most maxBodyBytes), which is
+ * parsed in place: a byte based Jackson parser for application/json, a single UTF-8 decode of the query
+ * for application/graphql. There is no InputStream, no Reader and no intermediate String of the body.
+ * The JSON fields are read as they come: query and operationName as strings, variables and extensions as
+ * maps, anything else is skipped. A JSON array of requests is a batch of at most MAX_BATCH_SIZE operations.
+ */
+public class GraphQLRequestDecoder {
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+    // a page of the gateway sends 10 to 20 operations
+    public static final int MAX_BATCH_SIZE = 32;
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final ObjectMapper mapper;
+    private final int maxBodyBytes;
+
+    public GraphQLRequestDecoder(ObjectMapper mapper, int maxBodyBytes) {
+        if (maxBodyBytes < 1) {
+            throw new IllegalArgumentException("maxBodyBytes must be positive");
+        }
+        this.mapper = mapper;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /*
+     * Completes with UnsupportedOperationException for a content type we can't read,
+     * BodyTooLargeException past maxBodyBytes, IOException for a body that is not valid JSON,
+     * MethodNotAllowedException for a GET of anything but a query.
+     */
+    public CompletableFuture<GraphQLBatch> decode(Request httpRequest) {
+
+        if (HttpMethod.GET.is(httpRequest.getMethod())) {
+            try {
+                return CompletableFuture.completedFuture(GraphQLBatch.single(fromQueryParameters(httpRequest)));
+            } catch (IOException | RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        var contentType = httpRequest.getHeaders().get(HttpHeader.CONTENT_TYPE);
+        // getBaseType() only knows the registered types, application/graphql is not one of them
+        var mimeType = contentType == null ? "" : MimeTypes.getBase(contentType).toLowerCase(Locale.ROOT);
+        boolean json = mimeType.equals("application/json");
+        Charset charset = charsetOf(contentType);
+        if ((!json && !mimeType.equals("application/graphql")) || charset == null) {
+            return CompletableFuture.failedFuture(
+                    new UnsupportedOperationException("Don't know how to handle %s".formatted(contentType)));
+        }
+        // refuse early when the client announces it
+        if (httpRequest.getLength() > maxBodyBytes) {
+            return CompletableFuture.failedFuture(new BodyTooLargeException(maxBodyBytes));
+        }
+
+        ByteBufferPool pool = httpRequest.getComponents().getByteBufferPool();
+        CompletableFuture<GraphQLBatch> decoded = new CompletableFuture<>();
+        Content.Source.asRetainableByteBuffer(httpRequest, pool, false, maxBodyBytes, new Promise<>() {
+            @Override
+            public void succeeded(RetainableByteBuffer body) {
+                // the buffer goes back to the pool as soon as this returns, so it is parsed right here
+                try {
+                    ByteBuffer bytes = body.getByteBuffer();
+                    decoded.complete(json ? parseBatch(bytes)
+                            : GraphQLBatch.single(new GraphQLRequest(decode(bytes, charset), null, null)));
+                } catch (IOException | RuntimeException e) {
+                    decoded.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                // Jetty signals a body over maxBodyBytes with an IllegalStateException
+                decoded.completeExceptionally(error instanceof IllegalStateException ? new BodyTooLargeException(maxBodyBytes) : error);
+            }
+        });
+        return decoded;
+    }
+
+    public GraphQLBatch parseBatch(ByteBuffer body) throws IOException {
+        if (body.hasArray()) {
+            return parseBatch(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        }
+        byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return parseBatch(bytes, 0, bytes.length);
+    }
+
+    /*
+     * A request object, or an array of them: [{"query": "..."}, {"query": "...", "variables": {...}}]
+     */
+    public GraphQLBatch parseBatch(byte[] body, int offset, int length) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(body, offset, length)) {
+            JsonToken first = parser.nextToken();
+            if (first == JsonToken.START_OBJECT) {
+                return GraphQLBatch.single(readRequest(parser));
+            }
+            if (first != JsonToken.START_ARRAY) {
+                throw new IOException("A GraphQL request must be a JSON object or an array of objects");
+            }
+            List<GraphQLRequest> requests = new ArrayList<>();
+            JsonToken element;
+            while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (element != JsonToken.START_OBJECT) {
+                    throw new IOException("A GraphQL request must be a JSON object");
+                }
+                if (requests.size() == MAX_BATCH_SIZE) {
+                    throw new IOException("A batch holds at most %d operations".formatted(MAX_BATCH_SIZE));
+                }
+                requests.add(readRequest(parser));
+            }
+            if (requests.isEmpty()) {
+                throw new IOException("A batch needs at least one operation");
+            }
+            return new GraphQLBatch(requests, true);
+        }
+    }
+
+    // {"query": "...", "variables": {...}, "operationName": "...", "extensions": {...}}
+    // the parser is on the START_OBJECT of the request, and is left on its END_OBJECT
+    private GraphQLRequest readRequest(JsonParser parser) throws IOException {
+        String query = null;
+        String operationName = null;
+        Map<String, Object> variables = null;
+        Map<String, Object> extensions = null;
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "query" -> query = parser.getValueAsString();
+                case "operationName" -> operationName = parser.getValueAsString();
+                case "variables" -> variables = value == JsonToken.VALUE_NULL ? null : mapper.readValue(parser, MAP_TYPE);
+                case "extensions" -> extensions = value == JsonToken.VALUE_NULL ? null : mapper.readValue(parser, MAP_TYPE);
+                default -> parser.skipChildren();
+            }
+        }
+        return new GraphQLRequest(query, variables, operationName, extensions);
+    }
+
+    private GraphQLRequest fromQueryParameters(Request httpRequest) throws IOException {
+        return fromQueryParameters(Request.extractQueryParameters(httpRequest));
+    }
+
+    /*
+     * GET /graphql?query=...&variables={...}&extensions={...}
+     * That's how persisted query clients send their hash-only requests, so they can be cached by a CDN.
+     * A GET must not change anything: a link or an image on another site can make the browser of a user send it,
+     * and a proxy may cache it. So only a query may come that way, a mutation must be POSTed. The operation of
+     * a hash-only request is only known once its document is found, see requireQuery(Document, String).
+     */
+    GraphQLRequest fromQueryParameters(Fields parameters) throws IOException {
+        GraphQLRequest request = new GraphQLRequest(
+                parameters.getValue("query"),
+                jsonParameter(parameters, "variables"),
+                parameters.getValue("operationName"),
+                jsonParameter(parameters, "extensions"));
+        if (request.query() != null) {
+            Document document;
+            try {
+                document = Parser.parse(request.query());
+            } catch (InvalidSyntaxException e) {
+                // reported by the execution, with the position of the error
+                return request;
+            }
+            requireQuery(document, request.operationName());
+        }
+        return request;
+    }
+
+    /*
+     * Throws MethodNotAllowedException when the operation to execute is a mutation or a subscription. When it
+     * can't be told (unknown operationName, several operations and no name) the execution reports the error.
+     */
+    public static void requireQuery(Document document, String operationName) {
+        List<OperationDefinition> operations = document.getDefinitionsOfType(OperationDefinition.class);
+        OperationDefinition operation = null;
+        if (operationName == null || operationName.isEmpty()) {
+            operation = operations.size() == 1 ? operations.getFirst() : null;
+        } else {
+            for (OperationDefinition candidate : operations) {
+                if (operationName.equals(candidate.getName())) {
+                    operation = candidate;
+                }
+            }
+        }
+        if (operation != null && operation.getOperation() != OperationDefinition.Operation.QUERY) {
+            throw new MethodNotAllowedException(operation.getOperation());
+        }
+    }
+
+    private Map<String, Object> jsonParameter(Fields parameters, String name) throws IOException {
+        String json = parameters.getValue(name);
+        return json == null || json.isBlank() ? null : mapper.readValue(json, MAP_TYPE);
+    }
+
+    // null when the JVM does not support it
+    private static Charset charsetOf(String contentType) {
+        String charset = MimeTypes.getCharsetFromContentType(contentType);
+        if (charset == null) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String decode(ByteBuffer body, Charset charset) {
+        return body.hasArray()
+                ? new String(body.array(), body.arrayOffset() + body.position(), body.remaining(), charset)
+                : charset.decode(body.duplicate()).toString();
+    }
+
+    public static class BodyTooLargeException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public BodyTooLargeException(int maxBodyBytes) {
+            super("Request body larger than %d bytes".formatted(maxBodyBytes));
+        }
+    }
+
+    public static class MethodNotAllowedException extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public MethodNotAllowedException(OperationDefinition.Operation operation) {
+            super("A %s must be sent with POST".formatted(operation.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.francd.http;
+
+import graphql.incremental.DelayedIncrementalPartialResult;
+import graphql.incremental.IncrementalExecutionResult;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/*
+ * Writes a result with deferred fragments (@defer) as a multipart/mixed response, as in the incremental
+ * delivery proposal of GraphQL over HTTP: the initial result (the non deferred fields, hasNext: true) in the
+ * first part, then one part per payload published by graphql-java as the deferred fragments complete, the
+ * last one with hasNext: false.
+ *
+ * Every part is flushed as soon as it is written, so the client gets the first part while the deferred
+ * fields are still being fetched. A payload is only requested from the publisher once the previous one is
+ * written: a slow client holds back the payloads rather than having them pile up in memory.
+ * The parts are written on the given executor, one after the other, never on the thread that publishes the
+ * payload: that one is a fetcher thread, which a slow client must not hold.
+ */
+public class IncrementalResultWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalResultWriter.class);
+
+    public static final String CONTENT_TYPE = "multipart/mixed; boundary=\"-\"; deferSpec=20220824";
+
+    private static final byte[] PART = "\r\n---\r\nContent-Type: application/json; charset=utf-8\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "\r\n-----\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ExecutionResultWriter resultWriter;
+
+    public IncrementalResultWriter(ExecutionResultWriter resultWriter) {
+        this.resultWriter = resultWriter;
+    }
+
+    /*
+     * Completes when the last part is written and the stream closed, which completes the response.
+     */
+    public CompletableFuture<Void> write(IncrementalExecutionResult result, OutputStream out, Executor executor) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        try {
+            writePart(result.toSpecification(), out);
+            if (!result.hasNext() || result.getIncrementalItemPublisher() == null) {
+                end(out);
+                written.complete(null);
+            } else {
+                result.getIncrementalItemPublisher().subscribe(new PartSubscriber(out, written, executor));
+            }
+        } catch (IOException | RuntimeException e) {
+            written.completeExceptionally(e);
+        }
+        return written;
+    }
+
+    private void writePart(Map<String, Object> specification, OutputStream out) throws IOException {
+        out.write(PART);
+        resultWriter.writeSpecification(specification, out);
+        out.flush();
+    }
+
+    private static void end(OutputStream out) throws IOException {
+        out.write(END);
+        out.close();
+    }
+
+    private class PartSubscriber implements Subscriber<DelayedIncrementalPartialResult> {
+
+        private final OutputStream out;
+        private final CompletableFuture<Void> written;
+        private final Executor executor;
+        private Subscription subscription;
+        // the last write handed to the executor: each signal runs after the previous one
+        private CompletableFuture<Void> writes = CompletableFuture.completedFuture(null);
+
+        PartSubscriber(OutputStream out, CompletableFuture<Void> written, Executor executor) {
+            this.out = out;
+            this.written = written;
+            this.executor = executor;
+        }
+
+        // the signals of a publisher are never concurrent, only the writes they hand over run later
+        private void then(Runnable write) {
+            writes = writes.thenRunAsync(write, executor);
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(DelayedIncrementalPartialResult payload) {
+            then(() -> {
+                if (written.isDone()) {
+                    return;
+                }
+                try {
+                    writePart(payload.toSpecification(), out);
+                    subscription.request(1);
+                } catch (IOException | RuntimeException e) {
+                    // the client is gone: no point in fetching the rest
+                    LOGGER.debug("Could not write a deferred payload", e);
+                    subscription.cancel();
+                    written.completeExceptionally(e);
+                }
+            });
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            then(() -> written.completeExceptionally(error));
+        }
+
+        @Override
+        public void onComplete() {
+            then(() -> {
+                if (written.isDone()) {
+                    return;
+                }
+                try {
+                    end(out);
+                    written.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    written.completeExceptionally(e);
+                }
+            });
+        }
+    }
+}
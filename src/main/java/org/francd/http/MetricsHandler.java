@@ -0,0 +1,35 @@
+package org.francd.http;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.io.Content;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.Callback;
+import org.francd.metrics.MetricsCollector;
+import org.francd.metrics.PrometheusText;
+
+import java.util.List;
+
+/*
+ * GET /metrics: the metrics of the server in the Prometheus text format, read at every scrape.
+ */
+public class MetricsHandler extends Handler.Abstract.NonBlocking {
+
+    private final List<MetricsCollector> collectors;
+
+    public MetricsHandler(List<MetricsCollector> collectors) {
+        this.collectors = List.copyOf(collectors);
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) {
+        PrometheusText metrics = new PrometheusText();
+        collectors.forEach(collector -> collector.collect(metrics));
+        response.setStatus(HttpStatus.OK_200);
+        response.getHeaders().add(HttpHeader.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        Content.Sink.write(response, true, metrics.render(), callback);
+        return true;
+    }
+}
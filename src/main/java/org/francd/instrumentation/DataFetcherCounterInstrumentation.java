@@ -1,34 +1,55 @@
 package org.francd.instrumentation;
 
 import graphql.ExecutionResult;
+import graphql.execution.ExecutionStepInfo;
 import graphql.execution.instrumentation.InstrumentationState;
 import graphql.execution.instrumentation.SimplePerformantInstrumentation;
 import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
 import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
 import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.AsyncDataFetcher;
 import graphql.schema.DataFetcher;
 import org.springframework.lang.NonNull;
 
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/*
+ * Counts the calls of the data fetchers, by fetcher class and by schema coordinate (Type.field).
+ *
+ * The counts are kept for the whole process (see snapshot() and reset()) and for each request, whose
+ * counts by fetcher class are returned in the "dataFetcherUsage" extension of the result.
+ * Counting takes no lock: the counters are LongAdders found in ConcurrentHashMaps with a plain get(),
+ * and the simple name of a fetcher class is computed once per class, so it can stay on in production.
+ */
 public class DataFetcherCounterInstrumentation extends SimplePerformantInstrumentation {
 
+    private static final ClassValue<String> SIMPLE_NAMES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            // lambdas and anonymous classes have an empty or generated simple name
+            String simpleName = type.getSimpleName();
+            return simpleName.isEmpty() || type.isSynthetic() || type.isHidden() ? type.getName() : simpleName;
+        }
+    };
+
+    private final Map<String, LongAdder> byFetcher = new ConcurrentHashMap<>();
+    // by parent type name, then field name, as in FieldLatencyInstrumentation
+    private final Map<String, Map<String, LongAdder>> byCoordinate = new ConcurrentHashMap<>();
+
     private static class DataFetcherUsageState implements InstrumentationState {
 
-        final Map<String, Integer> usages = new ConcurrentHashMap<>();
+        final Map<String, LongAdder> usages = new ConcurrentHashMap<>();
 
-        public void increaseUsageFor(DataFetcher<?> dataFetcher) {
-            synchronized (usages) {
-                String dataFetcherClass = dataFetcher.getClass().getSimpleName();
-                int prevCount = usages.getOrDefault(dataFetcherClass, 0);
-                usages.put(dataFetcherClass, prevCount + 1);
-            }
+        public void increaseUsageFor(String dataFetcherClass) {
+            counter(usages, dataFetcherClass).increment();
         }
 
-        public Map<String, Integer> getUsages() {
-            return usages;
+        public Map<String, Long> getUsages() {
+            return sums(usages);
         }
     }
 
@@ -40,7 +61,13 @@ public class DataFetcherCounterInstrumentation extends SimplePerformantInstrumen
     @Override
     public @NonNull DataFetcher<?> instrumentDataFetcher(DataFetcher<?> dataFetcher, InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
         if(state instanceof DataFetcherUsageState usageState) {
-            usageState.increaseUsageFor(dataFetcher);
+            // an async(...) fetcher counts as the fetcher it runs on the executor
+            DataFetcher<?> counted = dataFetcher instanceof AsyncDataFetcher<?> async ? async.getWrappedDataFetcher() : dataFetcher;
+            String dataFetcherClass = SIMPLE_NAMES.get(counted.getClass());
+            ExecutionStepInfo stepInfo = parameters.getExecutionStepInfo();
+            usageState.increaseUsageFor(dataFetcherClass);
+            counter(byFetcher, dataFetcherClass).increment();
+            counter(fieldsOf(stepInfo.getObjectType().getName()), stepInfo.getFieldDefinition().getName()).increment();
             return dataFetcher;
         } else {
             throw new RuntimeException("GraphQL didn't give us back a proper state");
@@ -50,11 +77,47 @@ public class DataFetcherCounterInstrumentation extends SimplePerformantInstrumen
     @Override
     public @NonNull CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult, InstrumentationExecutionParameters parameters, InstrumentationState state) {
         if(state instanceof DataFetcherUsageState usageState) {
-            return CompletableFuture.completedFuture(executionResult.transform(builder -> builder.addExtension(
+            return CompletableFuture.completedFuture(ResultExtensions.withExtension(executionResult,
                     "dataFetcherUsage", usageState.getUsages()
-            )));
+            ));
         } else {
             throw new RuntimeException("GraphQL didn't give us back a proper state");
         }
     }
+
+    /*
+     * Calls since the start (or the last reset), by fetcher class and by coordinate.
+     */
+    public Usage snapshot() {
+        Map<String, Long> coordinates = new TreeMap<>();
+        byCoordinate.forEach((typeName, fields) -> fields.forEach(
+                (fieldName, counter) -> coordinates.put(typeName + "." + fieldName, counter.sum())));
+        return new Usage(sums(byFetcher), coordinates);
+    }
+
+    /*
+     * Sets every counter back to 0. The calls counted while it runs may be lost.
+     */
+    public void reset() {
+        byFetcher.values().forEach(LongAdder::reset);
+        byCoordinate.values().forEach(fields -> fields.values().forEach(LongAdder::reset));
+    }
+
+    private Map<String, LongAdder> fieldsOf(String typeName) {
+        Map<String, LongAdder> fields = byCoordinate.get(typeName);
+        return fields != null ? fields : byCoordinate.computeIfAbsent(typeName, name -> new ConcurrentHashMap<>());
+    }
+
+    private static LongAdder counter(Map<String, LongAdder> counters, String key) {
+        LongAdder counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, name -> new LongAdder());
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+        Map<String, Long> sums = new TreeMap<>();
+        counters.forEach((key, counter) -> sums.put(key, counter.sum()));
+        return sums;
+    }
+
+    public record Usage(Map<String, Long> byFetcher, Map<String, Long> byCoordinate) {}
 }
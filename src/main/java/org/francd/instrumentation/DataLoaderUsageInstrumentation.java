@@ -0,0 +1,56 @@
+package org.francd.instrumentation;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.stats.Statistics;
+import org.francd.dispatch.DataLoaderDispatch;
+import org.springframework.lang.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Returns the work of the DataLoaders of a request in the "dataLoaderUsage" extension of its result:
+ * by DataLoader, the keys asked (loads), those found in the cache (cacheHits), the batches dispatched and
+ * the keys they held. DataLoaders that were not used are left out.
+ * The operations of a batched HTTP request share their DataLoaders: each result has the counts of all the
+ * operations completed so far.
+ */
+public class DataLoaderUsageInstrumentation extends SimplePerformantInstrumentation {
+
+    private final DataLoaderDispatch dataLoaderDispatch;
+
+    public DataLoaderUsageInstrumentation(DataLoaderDispatch dataLoaderDispatch) {
+        this.dataLoaderDispatch = dataLoaderDispatch;
+    }
+
+    @Override
+    public @NonNull CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult, InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        dataLoaderDispatch.recordOperation();
+        DataLoaderRegistry registry = parameters.getExecutionInput().getDataLoaderRegistry();
+        Map<String, Map<String, Long>> usage = new TreeMap<>();
+        for (String name : registry.getKeys()) {
+            DataLoader<?, ?> dataLoader = registry.getDataLoader(name);
+            Statistics statistics = dataLoader.getStatistics();
+            if (statistics.getLoadCount() > 0) {
+                usage.put(name, usageOf(statistics));
+            }
+        }
+        return CompletableFuture.completedFuture(ResultExtensions.withExtension(executionResult, "dataLoaderUsage", usage));
+    }
+
+    private static Map<String, Long> usageOf(Statistics statistics) {
+        Map<String, Long> usage = new LinkedHashMap<>();
+        usage.put("loads", statistics.getLoadCount());
+        usage.put("cacheHits", statistics.getCacheHitCount());
+        usage.put("batches", statistics.getBatchInvokeCount());
+        usage.put("batchedKeys", statistics.getBatchLoadCount());
+        return usage;
+    }
+}
@@ -0,0 +1,70 @@
+package org.francd.instrumentation;
+
+import graphql.execution.ExecutionStepInfo;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import org.francd.metrics.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency of every field fetch, by schema coordinate (Query.countries, Country.provinces, Province.capital...).
+ *
+ * The time goes from the call of the data fetcher to the completion of the value it returns, so for a
+ * DataLoader backed field it includes the wait for the batch. Trivial fetchers (reading a property of the
+ * parent object) are not measured: they are most of the fetches and never where the time goes.
+ * The histograms live as long as the instrumentation: they cover all the requests of a runtime.
+ */
+@SuppressWarnings("NullableProblems")
+public class FieldLatencyInstrumentation extends SimplePerformantInstrumentation {
+
+    private static final int WINDOW_SLICES = 6;
+    private static final long SLICE_SECONDS = 10;
+
+    // by parent type name, then field name: no String is built to find the histogram of a fetch
+    private final Map<String, Map<String, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public InstrumentationContext<Object> beginFieldFetch(InstrumentationFieldFetchParameters parameters, InstrumentationState state) {
+        if (parameters.isTrivialDataFetcher()) {
+            return SimpleInstrumentationContext.noOp();
+        }
+        ExecutionStepInfo stepInfo = parameters.getExecutionStepInfo();
+        LatencyHistogram histogram = histogramFor(stepInfo.getObjectType().getName(), stepInfo.getFieldDefinition().getName());
+        long start = System.nanoTime();
+        return SimpleInstrumentationContext.whenCompleted((value, error) -> histogram.recordNanos(System.nanoTime() - start));
+    }
+
+    private LatencyHistogram histogramFor(String typeName, String fieldName) {
+        Map<String, LatencyHistogram> fields = histograms.get(typeName);
+        if (fields == null) {
+            fields = histograms.computeIfAbsent(typeName, name -> new ConcurrentHashMap<>());
+        }
+        LatencyHistogram histogram = fields.get(fieldName);
+        if (histogram == null) {
+            histogram = fields.computeIfAbsent(fieldName,
+                    name -> new LatencyHistogram(WINDOW_SLICES, SLICE_SECONDS, TimeUnit.SECONDS));
+        }
+        return histogram;
+    }
+
+    /*
+     * Snapshot of every histogram, by coordinate (Type.field).
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshot() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        histograms.forEach((typeName, fields) -> fields.forEach(
+                (fieldName, histogram) -> snapshots.put(typeName + "." + fieldName, histogram.snapshot())));
+        return snapshots;
+    }
+
+    public static long windowSeconds() {
+        return WINDOW_SLICES * SLICE_SECONDS;
+    }
+}
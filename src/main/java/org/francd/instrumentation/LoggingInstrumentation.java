@@ -60,7 +60,7 @@ public class LoggingInstrumentation extends SimplePerformantInstrumentation {
         LOGGER.info("Starting state [{}] for path <{}>", state, stepInfo);
         return new ExecutionStrategyInstrumentationContext() {
             @Override
-            public void onDispatched(CompletableFuture<ExecutionResult> result) {}
+            public void onDispatched() {}
 
             @Override
             public void onCompleted(ExecutionResult result, Throwable t) {
@@ -70,7 +70,7 @@ public class LoggingInstrumentation extends SimplePerformantInstrumentation {
     }
 
     @Override
-    public InstrumentationContext<ExecutionResult> beginField(InstrumentationFieldParameters parameters, InstrumentationState state) {
+    public InstrumentationContext<Object> beginFieldExecution(InstrumentationFieldParameters parameters, InstrumentationState state) {
         var stepInfo = parameters.getExecutionStepInfo();
         return logState("field", stepInfo);
     }
@@ -82,13 +82,13 @@ public class LoggingInstrumentation extends SimplePerformantInstrumentation {
     }
 
     @Override
-    public InstrumentationContext<ExecutionResult> beginFieldComplete(InstrumentationFieldCompleteParameters parameters, InstrumentationState state) {
+    public InstrumentationContext<Object> beginFieldCompletion(InstrumentationFieldCompleteParameters parameters, InstrumentationState state) {
         var stepInfo = parameters.getExecutionStepInfo();
         return logState("field fetching", stepInfo);
     }
 
     @Override
-    public InstrumentationContext<ExecutionResult> beginFieldListComplete(InstrumentationFieldCompleteParameters parameters, InstrumentationState state) {
+    public InstrumentationContext<Object> beginFieldListCompletion(InstrumentationFieldCompleteParameters parameters, InstrumentationState state) {
         var stepInfo = parameters.getExecutionStepInfo();
         return logState("field fetching", stepInfo);
     }
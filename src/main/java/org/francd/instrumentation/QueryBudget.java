@@ -0,0 +1,77 @@
+package org.francd.instrumentation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Limits checked by QueryCostInstrumentation before an operation runs.
+ *  - maxDepth: deepest level of nested fields (the top level fields are at depth 1)
+ *  - maxCost: estimated cost of the whole operation, see QueryCostInstrumentation
+ *  - defaultListSize: expected number of elements of a list field without its own listSizes entry
+ *  - fieldWeights: cost of one call of a field, by coordinate (Type.field). Without an entry a field
+ *    returning an object costs 1 and a scalar or enum field costs nothing
+ *  - listSizes: expected number of elements of a list field, by coordinate. The edges of a connection
+ *    are as many as its first argument asks for, see PageRequest
+ */
+public record QueryBudget(
+        int maxDepth,
+        int maxCost,
+        int defaultListSize,
+        Map<String, Integer> fieldWeights,
+        Map<String, Integer> listSizes
+) {
+
+    public QueryBudget {
+        if (maxDepth < 1 || maxCost < 1 || defaultListSize < 1) {
+            throw new IllegalArgumentException("Invalid query budget: maxDepth=%d, maxCost=%d, defaultListSize=%d"
+                    .formatted(maxDepth, maxCost, defaultListSize));
+        }
+        fieldWeights = Map.copyOf(fieldWeights);
+        listSizes = Map.copyOf(listSizes);
+    }
+
+    /*
+     * Weights from what the fetchers do against mondial: a query of the country table is the most expensive,
+     * the provinces of the countries are batched but many rows per country, the capitals and provinces
+     * of cities are batched and mostly served from the entity caches.
+     */
+    public static QueryBudget defaults() {
+        return new QueryBudget(8, 5_000, 10,
+                Map.of(
+                        "Query.countries", 10,
+                        "Query.country", 5,
+                        "Query.provinces", 5,
+                        "Query.places", 10,
+                        "Query.countriesConnection", 10,
+                        "Query.provincesConnection", 5,
+                        "Query.placesConnection", 10,
+                        "Country.provinces", 2,
+                        "Mutation.updateProvince", 10,
+                        // one batch whatever the number of updates
+                        "Mutation.updateProvinces", 20
+                ),
+                Map.of(
+                        // mondial has about 50 countries per continent, provinces and places are filtered
+                        "Query.countries", 50,
+                        "Query.provinces", 100,
+                        "Query.places", 20,
+                        "Country.provinces", 20
+                ));
+    }
+
+    public QueryBudget withLimits(int maxDepth, int maxCost) {
+        return new QueryBudget(maxDepth, maxCost, defaultListSize, fieldWeights, listSizes);
+    }
+
+    public QueryBudget withFieldWeight(String coordinate, int weight) {
+        Map<String, Integer> weights = new HashMap<>(fieldWeights);
+        weights.put(coordinate, weight);
+        return new QueryBudget(maxDepth, maxCost, defaultListSize, weights, listSizes);
+    }
+
+    public QueryBudget withListSize(String coordinate, int size) {
+        Map<String, Integer> sizes = new HashMap<>(listSizes);
+        sizes.put(coordinate, size);
+        return new QueryBudget(maxDepth, maxCost, defaultListSize, fieldWeights, sizes);
+    }
+}
@@ -0,0 +1,149 @@
+package org.francd.instrumentation;
+
+import graphql.ExecutionResult;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.normalized.ExecutableNormalizedField;
+import graphql.normalized.ExecutableNormalizedOperation;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLOutputType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLTypeUtil;
+import org.francd.pagination.PageRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.NonNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Rejects an operation too deep or too expensive before any of its fields is fetched.
+ *
+ * The cost of a field is its weight plus the cost of its sub-selection times the expected size of the
+ * list it returns (1 for a single object), so that every level of nesting under a list multiplies:
+ *    countries { provinces { capital { name } } }  =  10 + 50 * (5 + 20 * (1 + 0))  =  1260
+ * Weights and list sizes come from the QueryBudget, except for the edges of a connection: there are as
+ * many as its first argument asks for (capped, see PageRequest). The computation works on the normalized operation
+ * of graphql-java (fragments expanded, @skip/@include applied with the variables of the request),
+ * which is built once per execution and shared with whoever else needs it.
+ *
+ * Introspection fields (__schema, __type, __typename) are free and don't count in the depth: GraphiQL
+ * nests ofType a dozen levels deep to read the schema.
+ *
+ * The depth and cost of the operation are reported in the "cost" extension of the result, also when
+ * it is rejected.
+ */
+public class QueryCostInstrumentation extends SimplePerformantInstrumentation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryCostInstrumentation.class);
+
+    private final QueryBudget budget;
+
+    public QueryCostInstrumentation(QueryBudget budget) {
+        this.budget = budget;
+    }
+
+    private static class CostState implements InstrumentationState {
+        volatile Map<String, Object> cost;
+    }
+
+    @Override
+    public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+        return new CostState();
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(InstrumentationExecuteOperationParameters parameters, InstrumentationState state) {
+        GraphQLSchema schema = parameters.getExecutionContext().getGraphQLSchema();
+        ExecutableNormalizedOperation operation = parameters.getExecutionContext().getNormalizedQueryTree().get();
+
+        int depth = depthOf(operation.getTopLevelFields());
+        long cost = costOf(operation.getTopLevelFields(), schema);
+        if (state instanceof CostState costState) {
+            costState.cost = Map.of(
+                    "depth", depth,
+                    "maxDepth", budget.maxDepth(),
+                    "cost", cost,
+                    "maxCost", budget.maxCost());
+        }
+
+        if (depth > budget.maxDepth()) {
+            LOGGER.warn("Operation {} rejected, depth {} > {}", operation.getOperationName(), depth, budget.maxDepth());
+            throw new AbortExecutionException("Operation too deep: depth %d exceeds the maximum of %d"
+                    .formatted(depth, budget.maxDepth()));
+        }
+        if (cost > budget.maxCost()) {
+            LOGGER.warn("Operation {} rejected, cost {} > {}", operation.getOperationName(), cost, budget.maxCost());
+            throw new AbortExecutionException("Operation too expensive: estimated cost %d exceeds the maximum of %d"
+                    .formatted(cost, budget.maxCost()));
+        }
+        return SimpleInstrumentationContext.noOp();
+    }
+
+    @Override
+    public @NonNull CompletableFuture<ExecutionResult> instrumentExecutionResult(ExecutionResult executionResult, InstrumentationExecutionParameters parameters, InstrumentationState state) {
+        if (state instanceof CostState costState && costState.cost != null) {
+            return CompletableFuture.completedFuture(ResultExtensions.withExtension(executionResult,
+                    "cost", costState.cost
+            ));
+        }
+        return CompletableFuture.completedFuture(executionResult);
+    }
+
+    private static int depthOf(List<ExecutableNormalizedField> fields) {
+        int depth = 0;
+        for (ExecutableNormalizedField field : fields) {
+            if (!isIntrospection(field)) {
+                depth = Math.max(depth, 1 + depthOf(field.getChildren()));
+            }
+        }
+        return depth;
+    }
+
+    private long costOf(List<ExecutableNormalizedField> fields, GraphQLSchema schema) {
+        return costOf(fields, schema, -1);
+    }
+
+    // pageSize: the size of the page when the fields are those of a connection, else -1
+    private long costOf(List<ExecutableNormalizedField> fields, GraphQLSchema schema, int pageSize) {
+        long cost = 0;
+        for (ExecutableNormalizedField field : fields) {
+            if (!isIntrospection(field)) {
+                cost += costOf(field, schema, pageSize);
+            }
+        }
+        return cost;
+    }
+
+    private long costOf(ExecutableNormalizedField field, GraphQLSchema schema, int pageSize) {
+        // a field selected on an interface may be of several object types (Place.name): the most expensive counts
+        long weight = 0;
+        long size = 1;
+        int childrenPageSize = -1;
+        for (String typeName : field.getObjectTypeNames()) {
+            String coordinate = typeName + "." + field.getName();
+            GraphQLFieldDefinition definition = schema.getObjectType(typeName).getFieldDefinition(field.getName());
+            GraphQLOutputType type = GraphQLTypeUtil.unwrapNonNullAs(definition.getType());
+            weight = Math.max(weight, budget.fieldWeights().getOrDefault(coordinate, GraphQLTypeUtil.isLeaf(type) ? 0 : 1));
+            if (GraphQLTypeUtil.isList(type)) {
+                size = Math.max(size, pageSize >= 0 ? pageSize : budget.listSizes().getOrDefault(coordinate, budget.defaultListSize()));
+            }
+            if (definition.getArgument("first") != null) {
+                childrenPageSize = PageRequest.pageSize((Integer) field.getResolvedArguments().get("first"));
+            }
+        }
+        return weight + size * costOf(field.getChildren(), schema, childrenPageSize);
+    }
+
+    private static boolean isIntrospection(ExecutableNormalizedField field) {
+        return field.getName().startsWith("__");
+    }
+}
@@ -0,0 +1,26 @@
+package org.francd.instrumentation;
+
+import graphql.ExecutionResult;
+import graphql.incremental.IncrementalExecutionResult;
+import graphql.incremental.IncrementalExecutionResultImpl;
+
+/*
+ * Adds an extension to a result, including a result with deferred payloads to come (@defer).
+ * transform() of graphql-java 22 rebuilds an IncrementalExecutionResult without its hasNext nor the
+ * publisher of the deferred payloads, which would then never be sent.
+ */
+final class ResultExtensions {
+
+    private ResultExtensions() {
+    }
+
+    static ExecutionResult withExtension(ExecutionResult result, String name, Object value) {
+        if (result instanceof IncrementalExecutionResult incremental) {
+            return IncrementalExecutionResultImpl.newIncrementalExecutionResult()
+                    .from(incremental)
+                    .addExtension(name, value)
+                    .build();
+        }
+        return result.transform(builder -> builder.addExtension(name, value));
+    }
+}
@@ -0,0 +1,145 @@
+package org.francd.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Latency histogram over a sliding window, in microseconds.
+ *
+ * Buckets are fixed and log-linear, HdrHistogram style: every power of two is split into SUB_BUCKETS equal
+ * buckets, so a percentile is known within 1/SUB_BUCKETS (12.5%) of its value, from 1 µs up to 2^35 µs (9.5 h).
+ * The window is a ring of slices (for instance 6 slices of 10 s for the last minute): record() only increments
+ * counters of the current slice, it takes no lock and allocates nothing. When the ring comes back to a slice,
+ * the first record of the new period clears it; the few records racing with that clear may be lost.
+ *
+ * _count and _sum are also kept since the start, as Prometheus expects for a summary.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 35;
+    static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final Slice[] slices;
+    private final long sliceNanos;
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+
+    public LatencyHistogram(int slices, long sliceDuration, TimeUnit unit) {
+        if (slices < 1 || sliceDuration <= 0) {
+            throw new IllegalArgumentException("A histogram needs at least one slice of a positive duration");
+        }
+        this.slices = new Slice[slices];
+        for (int i = 0; i < slices; i++) {
+            this.slices[i] = new Slice();
+        }
+        this.sliceNanos = unit.toNanos(sliceDuration);
+    }
+
+    public void recordNanos(long nanos) {
+        record(System.nanoTime(), nanos);
+    }
+
+    // now is a System.nanoTime() reading, passed in by the tests
+    void record(long now, long nanos) {
+        long micros = Math.max(0, nanos / 1_000);
+        long period = Math.floorDiv(now, sliceNanos);
+        Slice slice = slices[(int) Math.floorMod(period, (long) slices.length)];
+        long slicePeriod = slice.period.get();
+        if (slicePeriod != period && slice.period.compareAndSet(slicePeriod, period)) {
+            slice.clear();
+        }
+        slice.counts.incrementAndGet(bucketOf(micros));
+        slice.max.accumulateAndGet(micros, Math::max);
+        totalCount.increment();
+        totalMicros.add(micros);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    Snapshot snapshot(long now) {
+        long period = Math.floorDiv(now, sliceNanos);
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long max = 0;
+        for (Slice slice : slices) {
+            long slicePeriod = slice.period.get();
+            if (slicePeriod > period - slices.length && slicePeriod <= period) {
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    long bucketCount = slice.counts.get(bucket);
+                    counts[bucket] += bucketCount;
+                    count += bucketCount;
+                }
+                max = Math.max(max, slice.max.get());
+            }
+        }
+        return new Snapshot(count,
+                percentile(counts, count, 0.50, max),
+                percentile(counts, count, 0.95, max),
+                percentile(counts, count, 0.99, max),
+                max,
+                totalCount.sum(),
+                totalMicros.sum());
+    }
+
+    // upper bound of the bucket holding the requested rank, never more than the max seen
+    private static long percentile(long[] counts, long count, double quantile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), max);
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long micros) {
+        long value = Math.min(micros, MAX_VALUE);
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (magnitude - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    /*
+     * Percentiles and max over the window, count over the window, total count and sum since the start.
+     * All durations in microseconds.
+     */
+    public record Snapshot(long count, long p50, long p95, long p99, long max, long totalCount, long totalMicros) {}
+
+    private static class Slice {
+        final AtomicLong period = new AtomicLong(Long.MIN_VALUE);
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        final AtomicLong max = new AtomicLong();
+
+        void clear() {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                counts.set(bucket, 0);
+            }
+            max.set(0);
+        }
+    }
+}
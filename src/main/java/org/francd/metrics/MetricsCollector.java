@@ -0,0 +1,10 @@
+package org.francd.metrics;
+
+/*
+ * Adds the current values of some component (pool, caches, runtime...) to a scrape of the /metrics endpoint.
+ */
+@FunctionalInterface
+public interface MetricsCollector {
+
+    void collect(PrometheusText metrics);
+}
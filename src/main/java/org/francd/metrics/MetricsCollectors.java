@@ -0,0 +1,162 @@
+package org.francd.metrics;
+
+import org.francd.cache.BoundedPersistedQueryCache;
+import org.francd.cache.EntityCache;
+import org.francd.cache.EntityCaches;
+import org.francd.cache.PreparsedDocumentCache;
+import org.francd.db.SqlShapeCache;
+import org.francd.db.pool.ConnectionPool;
+import org.francd.db.routing.RoutingDataSource;
+import org.francd.dispatch.BatchSizeTuner;
+import org.francd.dispatch.DataLoaderDispatch;
+import org.francd.executor.FetcherExecutor;
+import org.francd.instrumentation.DataFetcherCounterInstrumentation;
+import org.francd.instrumentation.FieldLatencyInstrumentation;
+import org.francd.search.PlaceIndex;
+
+/*
+ * The collectors of the components of the server, all read from the counters they already keep.
+ */
+public final class MetricsCollectors {
+
+    private MetricsCollectors() {
+    }
+
+    /*
+     * Latency of the non trivial field fetches of one runtime, over the last FieldLatencyInstrumentation.windowSeconds().
+     */
+    public static MetricsCollector fieldLatencies(String runtime, FieldLatencyInstrumentation fieldLatencies) {
+        String window = "Over the last %d s".formatted(FieldLatencyInstrumentation.windowSeconds());
+        return metrics -> fieldLatencies.snapshot().forEach((coordinate, snapshot) -> metrics
+                .summary("graphql_field_fetch_seconds",
+                        "Time from the call of a data fetcher to the completion of its value. Quantiles: " + window,
+                        snapshot, "runtime", runtime, "coordinate", coordinate)
+                .gauge("graphql_field_fetch_max_seconds", "Slowest fetch. " + window,
+                        snapshot.max() / 1_000_000.0, "runtime", runtime, "coordinate", coordinate));
+    }
+
+    public static MetricsCollector fetcherCounters(String runtime, DataFetcherCounterInstrumentation fetcherCounters) {
+        return metrics -> {
+            DataFetcherCounterInstrumentation.Usage usage = fetcherCounters.snapshot();
+            usage.byCoordinate().forEach((coordinate, calls) -> metrics.counter("graphql_field_fetches_total",
+                    "Calls of the data fetcher of a field", calls, "runtime", runtime, "coordinate", coordinate));
+            usage.byFetcher().forEach((fetcher, calls) -> metrics.counter("graphql_data_fetcher_calls_total",
+                    "Calls of a data fetcher class", calls, "runtime", runtime, "fetcher", fetcher));
+        };
+    }
+
+    public static MetricsCollector documentCaches(String runtime, PreparsedDocumentCache documents,
+                                                  BoundedPersistedQueryCache persistedQueries) {
+        return metrics -> {
+            documentCache(metrics, runtime, "document", documents.size(), documents.hits(), documents.misses(), documents.evictions());
+            documentCache(metrics, runtime, "persisted_query", persistedQueries.size(), persistedQueries.hits(),
+                    persistedQueries.misses(), persistedQueries.evictions());
+        };
+    }
+
+    private static void documentCache(PrometheusText metrics, String runtime, String cache,
+                                      int size, long hits, long misses, long evictions) {
+        metrics.gauge("graphql_document_cache_entries", "Parsed and validated documents in the cache", size,
+                        "runtime", runtime, "cache", cache)
+                .counter("graphql_document_cache_hits_total", "Lookups that found the document", hits,
+                        "runtime", runtime, "cache", cache)
+                .counter("graphql_document_cache_misses_total", "Lookups that had to parse and validate", misses,
+                        "runtime", runtime, "cache", cache)
+                .counter("graphql_document_cache_evictions_total", "Documents dropped to stay under the maximum", evictions,
+                        "runtime", runtime, "cache", cache);
+    }
+
+    /*
+     * Batches of the DataLoaders, whatever the runtime: keys per batch is dataloader_batch_keys_total over
+     * dataloader_batches_total, batches per operation is the sum of dataloader_batches_total over
+     * dataloader_operations_total.
+     */
+    public static MetricsCollector dataLoaders(DataLoaderDispatch dataLoaderDispatch) {
+        String window = "Over the last %d s".formatted(FieldLatencyInstrumentation.windowSeconds());
+        return metrics -> {
+            metrics.counter("dataloader_operations_total", "Operations executed with DataLoaders", dataLoaderDispatch.operations());
+            for (BatchSizeTuner tuner : dataLoaderDispatch.tuners()) {
+                metrics.counter("dataloader_batches_total", "Batches dispatched", tuner.batches(), "loader", tuner.name())
+                        .counter("dataloader_batch_keys_total", "Keys of the batches", tuner.keys(), "loader", tuner.name())
+                        .gauge("dataloader_max_batch_size", "Max batch size of the next DataLoaders", tuner.batchSize(),
+                                "loader", tuner.name())
+                        .summary("dataloader_batch_seconds", "Time from the call of a batch loader to its values. Quantiles: " + window,
+                                tuner.latencies(), "loader", tuner.name());
+            }
+        };
+    }
+
+    public static MetricsCollector entityCaches(EntityCaches entityCaches) {
+        return metrics -> {
+            for (EntityCache<?, ?> cache : entityCaches.all()) {
+                metrics.gauge("entity_cache_entries", "Entities in the cache", cache.size(), "cache", cache.name())
+                        .gauge("entity_cache_estimated_bytes", "Rough heap size of the cached entities",
+                                cache.estimatedBytes(), "cache", cache.name())
+                        .counter("entity_cache_hits_total", "Loads served from the cache", cache.hits(), "cache", cache.name())
+                        .counter("entity_cache_misses_total", "Loads that went to the database", cache.misses(), "cache", cache.name())
+                        .counter("entity_cache_evictions_total", "Entities dropped to stay under the maximum",
+                                cache.evictions(), "cache", cache.name());
+            }
+        };
+    }
+
+    public static MetricsCollector placeIndex(PlaceIndex placeIndex) {
+        return metrics -> metrics.gauge("place_index_entries", "Places in the index of the places search", placeIndex.size());
+    }
+
+    public static MetricsCollector connectionPool(ConnectionPool pool) {
+        return connectionPool("primary", pool);
+    }
+
+    /*
+     * name: which pool, the primary's or a replica's.
+     */
+    public static MetricsCollector connectionPool(String name, ConnectionPool pool) {
+        return metrics -> metrics
+                .gauge("db_pool_connections", "Connections of the pool", pool.activeConnections(), "pool", name, "state", "active")
+                .gauge("db_pool_connections", "Connections of the pool", pool.idleConnections(), "pool", name, "state", "idle")
+                .gauge("db_pool_waiting_threads", "Threads waiting for a connection", pool.waitingThreads(), "pool", name)
+                .counter("db_pool_leases_total", "Connections handed out", pool.leaseCount(), "pool", name)
+                .counter("db_pool_lease_timeouts_total", "Waits for a connection that timed out", pool.leaseTimeouts(), "pool", name)
+                .counter("db_pool_leaks_total", "Connections held longer than the leak detection threshold", pool.leaksDetected(), "pool", name);
+    }
+
+    /*
+     * Health and lag of the read replicas as of their last check, -1 s of lag when it could not be measured.
+     */
+    public static MetricsCollector readReplicas(RoutingDataSource routing) {
+        return metrics -> {
+            metrics.counter("db_primary_reads_total", "Reads sent to the primary for lack of a healthy replica", routing.primaryReads());
+            for (RoutingDataSource.Replica replica : routing.replicas()) {
+                metrics.gauge("db_replica_up", "1 when the replica gets reads", replica.healthy() ? 1 : 0, "replica", replica.name())
+                        .gauge("db_replica_lag_seconds", "Replication lag", replica.lagMillis() < 0 ? -1 : replica.lagMillis() / 1000.0,
+                                "replica", replica.name())
+                        .counter("db_replica_reads_total", "Connections leased for reads", replica.reads(), "replica", replica.name())
+                        .counter("db_replica_failures_total", "Failed checks and leases", replica.failures(), "replica", replica.name());
+            }
+        };
+    }
+
+    public static MetricsCollector fetcherExecutor(FetcherExecutor executor) {
+        return metrics -> metrics
+                .gauge("fetcher_executor_tasks", "Fetcher tasks in the executor", Math.max(0, executor.inFlight() - executor.queued()),
+                        "executor", executor.name(), "state", "running")
+                .gauge("fetcher_executor_tasks", "Fetcher tasks in the executor", executor.queued(),
+                        "executor", executor.name(), "state", "queued")
+                .gauge("fetcher_executor_saturation", "Tasks in the executor over its capacity", executor.saturation(),
+                        "executor", executor.name())
+                .counter("fetcher_executor_submitted_total", "Tasks accepted", executor.submitted(), "executor", executor.name())
+                .counter("fetcher_executor_completed_total", "Tasks finished", executor.completed(), "executor", executor.name())
+                .counter("fetcher_executor_rejected_total", "Tasks refused because the executor was full",
+                        executor.rejected(), "executor", executor.name());
+    }
+
+    public static MetricsCollector sqlShapes() {
+        return metrics -> {
+            for (SqlShapeCache shapes : SqlShapeCache.all()) {
+                metrics.counter("sql_shape_cache_hits_total", "SQL texts reused for a criteria shape", shapes.hits(), "cache", shapes.name())
+                        .counter("sql_shape_cache_misses_total", "SQL texts built for a new criteria shape", shapes.misses(), "cache", shapes.name());
+            }
+        };
+    }
+}
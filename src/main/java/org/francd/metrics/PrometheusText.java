@@ -0,0 +1,90 @@
+package org.francd.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Builds one scrape in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Samples are grouped by metric family whatever the order they are added in, so that several collectors
+ * can contribute to the same family (the two runtimes, every entity cache...) and HELP/TYPE appear once.
+ * Labels are given as name/value pairs: gauge("pool_connections", "...", 3, "state", "idle").
+ */
+public class PrometheusText {
+
+    private static final String[] QUANTILES = {"0.5", "0.95", "0.99"};
+
+    private final Map<String, StringBuilder> families = new LinkedHashMap<>();
+
+    public PrometheusText gauge(String name, String help, double value, String... labels) {
+        sample(family(name, "gauge", help), name, value, labels);
+        return this;
+    }
+
+    public PrometheusText counter(String name, String help, double value, String... labels) {
+        sample(family(name, "counter", help), name, value, labels);
+        return this;
+    }
+
+    /*
+     * p50/p95/p99 over the window of the histogram, _sum and _count since the start, in seconds.
+     */
+    public PrometheusText summary(String name, String help, LatencyHistogram.Snapshot snapshot, String... labels) {
+        StringBuilder family = family(name, "summary", help);
+        long[] quantiles = {snapshot.p50(), snapshot.p95(), snapshot.p99()};
+        for (int i = 0; i < QUANTILES.length; i++) {
+            String[] quantileLabels = new String[labels.length + 2];
+            System.arraycopy(labels, 0, quantileLabels, 0, labels.length);
+            quantileLabels[labels.length] = "quantile";
+            quantileLabels[labels.length + 1] = QUANTILES[i];
+            sample(family, name, seconds(quantiles[i]), quantileLabels);
+        }
+        sample(family, name + "_sum", seconds(snapshot.totalMicros()), labels);
+        sample(family, name + "_count", snapshot.totalCount(), labels);
+        return this;
+    }
+
+    public String render() {
+        StringBuilder text = new StringBuilder();
+        families.values().forEach(text::append);
+        return text.toString();
+    }
+
+    private StringBuilder family(String name, String type, String help) {
+        return families.computeIfAbsent(name, key -> new StringBuilder()
+                .append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n'));
+    }
+
+    private static void sample(StringBuilder family, String name, double value, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels go by name/value pairs");
+        }
+        family.append(name);
+        if (labels.length > 0) {
+            family.append('{');
+            for (int i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    family.append(',');
+                }
+                family.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            }
+            family.append('}');
+        }
+        family.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            family.append((long) value);
+        } else {
+            family.append(value);
+        }
+        family.append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double seconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+}
@@ -1,4 +1,7 @@
 package org.francd.model;
 
 public interface Place {
+
+    // the name the places search matches
+    String name();
 }
@@ -0,0 +1,22 @@
+package org.francd.model;
+
+import org.springframework.lang.NonNull;
+
+/*
+ * The outcome of one update of updateProvinces: the updated province, or why it was not updated.
+ */
+public record ProvinceUpdateResult(
+        @NonNull
+        String name,
+        Province province,
+        String error
+) {
+
+    public static ProvinceUpdateResult updated(Province province) {
+        return new ProvinceUpdateResult(province.name(), province, null);
+    }
+
+    public static ProvinceUpdateResult failed(String name, String error) {
+        return new ProvinceUpdateResult(name, null, error);
+    }
+}
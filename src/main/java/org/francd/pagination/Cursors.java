@@ -0,0 +1,38 @@
+package org.francd.pagination;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/*
+ * Opaque cursors of the connections: the sort key of a row (one or more values), base64url encoded.
+ * A client must not build or read them, it only gives back the endCursor of a page to get the next one.
+ */
+public final class Cursors {
+
+    // never in a name of mondial
+    private static final String SEPARATOR = "\u001F";
+
+    private Cursors() {
+    }
+
+    public static String encode(String... key) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(String.join(SEPARATOR, key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * The values of the sort key, as many as the connection sorts on.
+     */
+    public static String[] decode(String cursor, int keyValues) {
+        String[] key;
+        try {
+            key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        if (key.length != keyValues) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,64 @@
+package org.francd.pagination;
+
+import graphql.relay.Connection;
+import graphql.relay.ConnectionCursor;
+import graphql.relay.DefaultConnection;
+import graphql.relay.DefaultConnectionCursor;
+import graphql.relay.DefaultEdge;
+import graphql.relay.DefaultPageInfo;
+import graphql.relay.Edge;
+import graphql.schema.DataFetchingEnvironment;
+
+import java.util.List;
+
+/*
+ * The first and after arguments of a connection field.
+ *
+ * A page is read with keyset pagination: the query sorts on a unique key, starts after the key in the
+ * after cursor and reads first + 1 rows, the extra one only telling whether there is a next page.
+ * Reading a page costs the same at the start and at the end of the list, unlike an OFFSET.
+ * first is capped to MAX_PAGE_SIZE: a client asking for more gets a shorter page, with hasNextPage.
+ */
+public record PageRequest(int first, List<String> after) {
+
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 100;
+
+    public static PageRequest of(DataFetchingEnvironment environment, int keyValues) {
+        Integer first = environment.getArgument("first");
+        String after = environment.getArgument("after");
+        if (first != null && first < 0) {
+            throw new IllegalArgumentException("first cannot be negative: " + first);
+        }
+        return new PageRequest(pageSize(first), after == null ? null : List.of(Cursors.decode(after, keyValues)));
+    }
+
+    // also used by QueryCostInstrumentation, to expect the size of the page a field returns
+    public static int pageSize(Integer first) {
+        return first == null ? DEFAULT_PAGE_SIZE : Math.clamp(first, 0, MAX_PAGE_SIZE);
+    }
+
+    public boolean hasAfter() {
+        return after != null;
+    }
+
+    // the rows to read
+    public int limit() {
+        return first + 1;
+    }
+
+    public static <T> Edge<T> edge(T node, String... key) {
+        return new DefaultEdge<>(node, new DefaultConnectionCursor(Cursors.encode(key)));
+    }
+
+    /*
+     * The page from the edges read with limit(): the one past first is dropped.
+     */
+    public <T> Connection<T> connectionOf(List<Edge<T>> edges) {
+        List<Edge<T>> page = edges.size() > first ? edges.subList(0, first) : edges;
+        ConnectionCursor startCursor = page.isEmpty() ? null : page.getFirst().getCursor();
+        ConnectionCursor endCursor = page.isEmpty() ? null : page.getLast().getCursor();
+        return new DefaultConnection<>(page,
+                new DefaultPageInfo(startCursor, endCursor, hasAfter(), edges.size() > first));
+    }
+}
@@ -0,0 +1,286 @@
+package org.francd.search;
+
+import org.francd.db.Mapping;
+import org.francd.model.Place;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * In-memory index of the names of all the places (countries, provinces and cities) for the places search.
+ *
+ * A pattern is a name where * stands for any sequence of characters ("Ma*", "*burg", "*an*o"), matched
+ * case-sensitively against the whole name, like the LIKE it replaces. Every other character is literal.
+ * The candidates come from the narrowest of:
+ *  - the trigrams of the literal parts of the pattern: the posting lists of the rarest trigrams intersected
+ *  - the range of the sorted names starting with the prefix of the pattern
+ *  - all the places, for a pattern without 3 literal characters in a row nor prefix ("*a*")
+ * and are then checked against the pattern.
+ *
+ * The names and the posting lists are built once by load() and never change: a place can be updated
+ * (updateProvince changes figures, never a name) but not added or renamed without a new load().
+ */
+public class PlaceIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PlaceIndex.class);
+
+    private static final int[] NO_IDS = new int[0];
+    // intersecting more lists than that rarely removes anything, the check against the pattern does the rest
+    private static final int MAX_INTERSECTED_TRIGRAMS = 3;
+
+    // by id, ordered by name then type: a search returns its places in that order
+    private final String[] names;
+    private final String[] types;
+    private final AtomicReferenceArray<Place> places;
+    private final Map<Long, int[]> postings;
+    // ids of the places of a type, by name: what update() replaces
+    private final Map<String, int[]> idsByTypeAndName;
+
+    private PlaceIndex(List<Place> allPlaces) {
+        List<Place> sorted = new ArrayList<>(allPlaces);
+        sorted.sort(Comparator.comparing(Place::name).thenComparing(PlaceIndex::typeOf));
+
+        names = new String[sorted.size()];
+        types = new String[sorted.size()];
+        places = new AtomicReferenceArray<>(sorted.size());
+        Map<Long, List<Integer>> trigramIds = new HashMap<>();
+        Map<String, List<Integer>> typeAndNameIds = new HashMap<>();
+        for (int id = 0; id < sorted.size(); id++) {
+            Place place = sorted.get(id);
+            names[id] = place.name();
+            types[id] = typeOf(place);
+            places.set(id, place);
+            typeAndNameIds.computeIfAbsent(keyOf(place), key -> new ArrayList<>()).add(id);
+            long previous = -1;
+            for (long trigram : trigramsOf(place.name())) {
+                // a name repeating a trigram must appear once in its list
+                if (trigram != previous) {
+                    List<Integer> ids = trigramIds.computeIfAbsent(trigram, key -> new ArrayList<>());
+                    if (ids.isEmpty() || ids.getLast() != id) {
+                        ids.add(id);
+                    }
+                }
+                previous = trigram;
+            }
+        }
+        postings = new HashMap<>(trigramIds.size() * 2);
+        trigramIds.forEach((trigram, ids) -> postings.put(trigram, ids.stream().mapToInt(Integer::intValue).toArray()));
+        idsByTypeAndName = new HashMap<>(typeAndNameIds.size() * 2);
+        typeAndNameIds.forEach((key, ids) -> idsByTypeAndName.put(key, ids.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    public static PlaceIndex of(List<Place> places) {
+        return new PlaceIndex(places);
+    }
+
+    /*
+     * Reads every country, province and city: a few thousand rows for mondial.
+     */
+    public static PlaceIndex load(DataSource dataSource) {
+        long start = System.nanoTime();
+        List<Place> places = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            try (ResultSet results = statement.executeQuery("SELECT code, name, population, area, capital FROM country")) {
+                while (results.next()) {
+                    places.add(Mapping.countryOf(results));
+                }
+            }
+            try (ResultSet results = statement.executeQuery("SELECT name, population, area, capital FROM province")) {
+                while (results.next()) {
+                    places.add(Mapping.provinceOf(results));
+                }
+            }
+            try (ResultSet results = statement.executeQuery(
+                    "SELECT name, population, latitude, longitude, elevation, province FROM city")) {
+                while (results.next()) {
+                    places.add(Mapping.cityOf(results));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        PlaceIndex index = new PlaceIndex(places);
+        LOGGER.info("Place index loaded - {} places, {} trigrams in {} ms",
+                index.size(), index.postings.size(), (System.nanoTime() - start) / 1_000_000);
+        return index;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public List<Place> search(String pattern) {
+        return search(pattern, null, null, Integer.MAX_VALUE);
+    }
+
+    /*
+     * At most limit places matching the pattern, after the place afterName of type afterType in the order
+     * of the index (from the first one when afterName is null): a page of a connection.
+     */
+    public List<Place> search(String pattern, String afterName, String afterType, int limit) {
+        String[] parts = pattern.split("\\*", -1);
+        int[] candidates = candidatesFor(parts);
+        int from = afterName == null ? 0 : firstIdAfter(afterName, afterType);
+        List<Place> found = new ArrayList<>();
+        if (candidates == null) {
+            for (int id = from; id < names.length && found.size() < limit; id++) {
+                if (matches(names[id], parts)) {
+                    found.add(places.get(id));
+                }
+            }
+        } else {
+            int start = Arrays.binarySearch(candidates, from);
+            for (int i = start < 0 ? -start - 1 : start; i < candidates.length && found.size() < limit; i++) {
+                int id = candidates[i];
+                if (matches(names[id], parts)) {
+                    found.add(places.get(id));
+                }
+            }
+        }
+        return found;
+    }
+
+    // the type of a place in the order of the index and in the cursors: Country, Province or City
+    public static String typeOf(Place place) {
+        return place.getClass().getSimpleName();
+    }
+
+    /*
+     * Replaces the places of the same type and name, for instance after an update of their figures.
+     */
+    public void update(Place place) {
+        int[] ids = idsByTypeAndName.get(keyOf(place));
+        if (ids == null) {
+            LOGGER.warn("{} {} is not in the place index", typeOf(place), place.name());
+            return;
+        }
+        for (int id : ids) {
+            places.set(id, place);
+        }
+    }
+
+    // ids in increasing order, null when every place is a candidate
+    private int[] candidatesFor(String[] parts) {
+        List<int[]> lists = new ArrayList<>();
+        for (String part : parts) {
+            for (long trigram : trigramsOf(part)) {
+                lists.add(postings.getOrDefault(trigram, NO_IDS));
+            }
+        }
+        if (!lists.isEmpty()) {
+            lists.sort(Comparator.comparingInt(ids -> ids.length));
+            int[] candidates = lists.getFirst();
+            for (int i = 1; i < Math.min(lists.size(), MAX_INTERSECTED_TRIGRAMS) && candidates.length > 0; i++) {
+                candidates = intersect(candidates, lists.get(i));
+            }
+            return candidates;
+        }
+        String prefix = parts[0];
+        if (!prefix.isEmpty()) {
+            int from = lowerBound(prefix);
+            int to = from;
+            while (to < names.length && names[to].startsWith(prefix)) {
+                to++;
+            }
+            int[] candidates = new int[to - from];
+            Arrays.setAll(candidates, i -> from + i);
+            return candidates;
+        }
+        return null;
+    }
+
+    private int firstIdAfter(String name, String type) {
+        int id = lowerBound(name);
+        while (id < names.length && names[id].equals(name) && types[id].compareTo(type) <= 0) {
+            id++;
+        }
+        return id;
+    }
+
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = names.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (names[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int[] intersect(int[] first, int[] second) {
+        int[] common = new int[Math.min(first.length, second.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                common[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, count);
+    }
+
+    /*
+     * parts are the literal pieces between the *: the first one is a prefix, the last one a suffix
+     * (both empty when the pattern starts or ends with *), the others must appear in order in between.
+     */
+    static boolean matches(String name, String[] parts) {
+        if (parts.length == 1) {
+            return name.equals(parts[0]);
+        }
+        String first = parts[0];
+        String last = parts[parts.length - 1];
+        if (name.length() < first.length() + last.length() || !name.startsWith(first) || !name.endsWith(last)) {
+            return false;
+        }
+        int position = first.length();
+        int end = name.length() - last.length();
+        for (int i = 1; i < parts.length - 1; i++) {
+            int found = name.indexOf(parts[i], position);
+            if (found < 0 || found + parts[i].length() > end) {
+                return false;
+            }
+            position = found + parts[i].length();
+        }
+        return true;
+    }
+
+    // three chars of 16 bits in a long, in the order of the text
+    private static long[] trigramsOf(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        long[] trigrams = new long[text.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+        }
+        return trigrams;
+    }
+
+    private static String keyOf(Place place) {
+        return typeOf(place) + ":" + place.name();
+    }
+}
@@ -1,32 +1,60 @@
 package org.francd;
 
 import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.incremental.DeferPayload;
+import graphql.incremental.DelayedIncrementalPartialResult;
+import graphql.incremental.IncrementalExecutionResult;
 import graphql.validation.ValidationError;
+import org.dataloader.DataLoaderRegistry;
+import org.francd.cache.EntityCaches;
+import org.francd.dispatch.BatchSizeTuner;
+import org.francd.dispatch.DataLoaderDispatch;
+import org.francd.dispatch.DispatchConfig;
+import org.francd.db.pool.ConnectionPool;
+import org.francd.db.pool.ConnectionPoolConfig;
+import org.francd.db.routing.RoutingConfig;
+import org.francd.db.routing.RoutingDataSource;
+import org.francd.executor.FetcherExecutor;
+import org.francd.instrumentation.QueryBudget;
+import org.francd.search.PlaceIndex;
 import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 class GraphQLRuntimeTest {
 
+    private final ConnectionPool connectionPool;
     private final GraphQLRuntime runtime;
 
     GraphQLRuntimeTest() throws IOException, SQLException {
 
         // Setup DB
-        Connection dbConnection = DriverManager.getConnection(
+        connectionPool = new ConnectionPool(ConnectionPoolConfig.of(
                 "jdbc:postgresql://localhost:5432/mondial",
                 "postgres",
                 "postgres789"
-        );
+        ).withLeakDetectionThreshold(Duration.ofSeconds(20)));
 
-        runtime = new GraphQLRuntime(dbConnection);
+        runtime = new GraphQLRuntime(connectionPool, EntityCaches.defaults(), FetcherExecutor.virtualThreads("test-fetcher", 64));
     }
 
     // Fix list of provinces in query countries
@@ -176,4 +204,474 @@ class GraphQLRuntimeTest {
                 )
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void persistedQuery() throws Exception {
+        // Given
+        var query = "{ countries(criteria: { continent: Europe }) { name } }";
+        var hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                .digest(query.getBytes(StandardCharsets.UTF_8)));
+        Map<String, Object> extensions = Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", hash));
+
+        // When
+        ExecutionResult unknownHash = runtime.execute(null, null, null, extensions, Set.of());
+        ExecutionResult registration = runtime.execute(query, null, null, extensions, Set.of());
+        ExecutionResult hashOnly = runtime.execute(null, null, null, extensions, Set.of());
+
+        // Then
+        assertThat(unknownHash.getErrors()).extracting(GraphQLError::getMessage).containsExactly("PersistedQueryNotFound");
+        assertThat(registration.getErrors()).isEmpty();
+        assertThat(hashOnly.getErrors()).isEmpty();
+        assertThat(hashOnly.<Object>getData()).isEqualTo(registration.getData());
+        assertThat(runtime.persistedQueryCache().hits()).isEqualTo(1);
+    }
+
+    @Test
+    void parsedDocumentIsReusedWithOtherVariables() {
+        // Given
+        var query = """
+            query ($criteria: CountryCriteria) {
+                countries(criteria: $criteria) { name }
+            }
+        """;
+        long hitsBefore = runtime.documentCache().hits();
+
+        // When
+        ExecutionResult europe = runtime.execute(query, Map.of("criteria", Map.of("continent", "Europe")), null, Set.of());
+        ExecutionResult africa = runtime.execute(query, Map.of("criteria", Map.of("continent", "Africa")), null, Set.of());
+
+        // Then
+        assertThat(europe.getErrors()).isEmpty();
+        assertThat(africa.getErrors()).isEmpty();
+        assertThat(africa.<Object>getData()).isNotEqualTo(europe.getData());
+        assertThat(runtime.documentCache().hits()).isEqualTo(hitsBefore + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void fetcherCallsAreCountedPerRequestAndProcessWide() {
+        // Given
+        var query = """
+            {
+                countries(criteria: { continent: Europe }) { name }
+            }
+        """;
+        runtime.fetcherCounters().reset();
+
+        // When
+        ExecutionResult first = runtime.execute(query);
+        ExecutionResult second = runtime.execute(query);
+
+        // Then
+        assertThat(first.getErrors()).isEmpty();
+        assertThat((Map<String, Long>) second.getExtensions().get("dataFetcherUsage")).containsEntry("DBCountriesDataFetcher", 1L);
+        assertThat(runtime.fetcherCounters().snapshot().byCoordinate()).containsEntry("Query.countries", 2L);
+        assertThat(runtime.fetcherCounters().snapshot().byFetcher()).containsEntry("DBCountriesDataFetcher", 2L);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void costOfTheOperationIsReported() {
+        // Given
+        var query = """
+            {
+                countries(criteria: { continent: Europe }) { name capital { name province { name } } }
+            }
+        """;
+
+        // When
+        ExecutionResult result = runtime.execute(query);
+
+        // Then
+        assertThat(result.getErrors()).isEmpty();
+        assertThat((Map<String, Object>) result.getExtensions().get("cost"))
+                .containsEntry("depth", 4)
+                .containsEntry("cost", 110L);
+    }
+
+    @Test
+    void operationOverTheBudgetIsRejectedBeforeExecution() {
+        // Given
+        var query = """
+            {
+                countries(criteria: { continent: Europe }) {
+                    provinces { capital { province { capital { province { capital { province { name } } } } } } }
+                }
+            }
+        """;
+        runtime.fetcherCounters().reset();
+
+        // When
+        ExecutionResult result = runtime.execute(query);
+
+        // Then
+        assertThat(result.isDataPresent()).isFalse();
+        assertThat(result.getErrors()).extracting(GraphQLError::getMessage)
+                .containsExactly("Operation too deep: depth 9 exceeds the maximum of 8");
+        assertThat(result.getExtensions()).containsKey("cost");
+        assertThat(runtime.fetcherCounters().snapshot().byFetcher()).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void provincesOfCountriesAreFilteredByTheRangeOfTheCriteria() {
+        // Given
+        var query = """
+            {
+                countries(criteria: { continent: Europe, populationProvinceRange: { above: 3000000 } }) {
+                    name
+                    provinces { name population }
+                }
+            }
+        """;
+
+        // When
+        ExecutionResult result = runtime.execute(query);
+
+        // Then
+        assertThat(result.getErrors()).isEmpty();
+        Map<String, Object> data = result.getData();
+        List<Map<String, Object>> countries = (List<Map<String, Object>>) data.get("countries");
+        List<Map<String, Object>> provinces = countries.stream()
+                .flatMap(country -> ((List<Map<String, Object>>) country.get("provinces")).stream())
+                .toList();
+        assertThat(provinces).isNotEmpty();
+        assertThat(provinces).allSatisfy(province -> assertThat((Integer) province.get("population")).isGreaterThanOrEqualTo(3_000_000));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void capitalsAreJoinedToTheCountriesInOneQuery() {
+        // Given
+        var query = """
+            {
+                countries(criteria: { continent: Europe }) { name capital { name population } }
+            }
+        """;
+        long leasesBefore = connectionPool.leaseCount();
+
+        // When
+        ExecutionResult result = runtime.execute(query);
+
+        // Then
+        assertThat(result.getErrors()).isEmpty();
+        Map<String, Object> data = result.getData();
+        List<Map<String, Object>> countries = (List<Map<String, Object>>) data.get("countries");
+        assertThat(countries).isNotEmpty();
+        assertThat(countries).allSatisfy(country -> assertThat((Map<String, Object>) country.get("capital")).containsKey("population"));
+        // the countries query only, no batch load of the capitals
+        assertThat(connectionPool.leaseCount()).isEqualTo(leasesBefore + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void placesReadTheFieldsOfTheInlineFragments() {
+        // Given
+        var query = """
+            {
+                places(criteria: { name: "Madrid" }) {
+                    __typename
+                    name
+                    ... on City { elevation geoLocation { latitude } }
+                }
+            }
+        """;
+
+        // When
+        ExecutionResult result = runtime.execute(query);
+
+        // Then
+        assertThat(result.getErrors()).isEmpty();
+        Map<String, Object> data = result.getData();
+        List<Map<String, Object>> places = (List<Map<String, Object>>) data.get("places");
+        assertThat(places).extracting(place -> place.get("__typename")).containsExactlyInAnyOrder("City", "Province");
+        Map<String, Object> city = places.stream().filter(place -> "City".equals(place.get("__typename"))).findFirst().orElseThrow();
+        assertThat(city).containsEntry("elevation", 667);
+        assertThat((Map<String, Object>) city.get("geoLocation")).containsEntry("latitude", 40.38);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void countriesAreReadOnePageAfterTheOther() {
+        // Given
+        var query = """
+            query Page($after: String) {
+                countriesConnection(criteria: {}, first: 2, after: $after) {
+                    edges { node { name } cursor }
+                    pageInfo { hasNextPage endCursor }
+                }
+            }
+        """;
+        Map<String, Object> all = runtime.execute("{ countries(criteria: {}) { name } }").getData();
+        List<String> expected = ((List<Map<String, Object>>) all.get("countries")).stream()
+                .map(country -> (String) country.get("name")).sorted().toList();
+
+        // When
+        List<String> names = new ArrayList<>();
+        String after = null;
+        boolean hasNextPage = true;
+        while (hasNextPage) {
+            ExecutionResult result = runtime.execute(query, Collections.singletonMap("after", after), null, Set.of());
+            assertThat(result.getErrors()).isEmpty();
+            Map<String, Object> connection = (Map<String, Object>) ((Map<String, Object>) result.getData()).get("countriesConnection");
+            List<Map<String, Object>> edges = (List<Map<String, Object>>) connection.get("edges");
+            assertThat(edges).hasSizeLessThanOrEqualTo(2);
+            edges.forEach(edge -> names.add((String) ((Map<String, Object>) edge.get("node")).get("name")));
+            Map<String, Object> pageInfo = (Map<String, Object>) connection.get("pageInfo");
+            hasNextPage = (Boolean) pageInfo.get("hasNextPage");
+            after = (String) pageInfo.get("endCursor");
+        }
+
+        // Then
+        assertThat(names).isEqualTo(expected);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void costOfAConnectionFollowsItsFirstArgument() {
+        // Given
+        var query = """
+            {
+                countriesConnection(criteria: {}, first: 5) {
+                    edges { node { name capital { name } } }
+                }
+            }
+        """;
+
+        // When
+        ExecutionResult result = runtime.execute(query);
+
+        // Then: countriesConnection 10 + edges (1 + 5 * (node 1 + capital 1))
+        assertThat(result.getErrors()).isEmpty();
+        assertThat((Map<String, Object>) result.getExtensions().get("cost")).containsEntry("cost", 21L);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void deferredFragmentsArePublishedAfterTheInitialResult() throws Exception {
+        // Given
+        var query = """
+            {
+                country(criteria: { country: "Spain" }) {
+                    name
+                    ... @defer(label: "provinces") { provinces { name } }
+                }
+            }
+        """;
+
+        // When
+        ExecutionResult result = runtime.executeAsync(query, null, null, null, Set.of(), true).get();
+
+        // Then
+        assertThat(result).isInstanceOf(IncrementalExecutionResult.class);
+        IncrementalExecutionResult incremental = (IncrementalExecutionResult) result;
+        assertThat(incremental.hasNext()).isTrue();
+        assertThat((Map<String, Object>) ((Map<String, Object>) result.getData()).get("country"))
+                .containsEntry("name", "Spain")
+                .doesNotContainKey("provinces");
+        List<DelayedIncrementalPartialResult> payloads = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        incremental.getIncrementalItemPublisher().subscribe(new Subscriber<>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(DelayedIncrementalPartialResult payload) {
+                payloads.add(payload);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                completed.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+        completed.get(10, TimeUnit.SECONDS);
+        assertThat(payloads.getLast().hasNext()).isFalse();
+        DeferPayload deferred = (DeferPayload) payloads.getFirst().getIncremental().getFirst();
+        assertThat(deferred.getLabel()).isEqualTo("provinces");
+        assertThat(deferred.getPath()).containsExactly("country");
+        assertThat((Map<String, Object>) deferred.getData()).containsKey("provinces");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void deferIsIgnoredWithoutIncrementalDelivery() {
+        // When
+        ExecutionResult result = runtime.execute("""
+            { country(criteria: { country: "Spain" }) { name ... @defer { provinces { name } } } }
+        """);
+
+        // Then
+        assertThat(result).isNotInstanceOf(IncrementalExecutionResult.class);
+        assertThat((Map<String, Object>) ((Map<String, Object>) result.getData()).get("country")).containsKey("provinces");
+    }
+
+    @Test
+    void operationsOfABatchShareTheirDataLoaders() {
+        // Given
+        var query = """
+            {
+                country(criteria: { country: "Spain" }) {
+                    provinces { name capital { name } }
+                }
+            }
+        """;
+        DataLoaderRegistry dataLoaderRegistry = runtime.newDataLoaderRegistry();
+
+        // When
+        CompletableFuture<ExecutionResult> first = runtime.executeAsync(query, null, null, null, Set.of(), dataLoaderRegistry);
+        CompletableFuture<ExecutionResult> second = runtime.executeAsync(query, null, null, null, Set.of(), dataLoaderRegistry);
+
+        // Then
+        assertThat(first.join().getErrors()).isEmpty();
+        assertThat(second.join().<Map<String, Object>>getData()).isEqualTo(first.join().getData());
+        // the capitals read by the operations are in the one City loader they shared
+        assertThat(dataLoaderRegistry.getDataLoader("City").getIfPresent("Madrid")).isPresent();
+        assertThat(dataLoaderRegistry.getDataLoader("City").getIfPresent("Barcelona")).isPresent();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void dataLoadersWithABatchWindowReportTheirBatches() throws IOException {
+        // Given (the window itself is tested with a clock of its own in DataLoaderDispatchTest)
+        try (DataLoaderDispatch dispatch = new DataLoaderDispatch(DispatchConfig.defaults().withBatchWindow(Duration.ofMillis(20)));
+             FetcherExecutor fetcherExecutor = FetcherExecutor.virtualThreads("test-window", 16)) {
+            GraphQLRuntime windowed = new GraphQLRuntime(connectionPool, EntityCaches.defaults(), PlaceIndex.of(List.of()),
+                    fetcherExecutor, QueryBudget.defaults(), dispatch);
+            var query = "query Capital($country: String) { country(criteria: { country: $country }) { capital { province { name } } } }";
+            DataLoaderRegistry dataLoaderRegistry = windowed.newDataLoaderRegistry();
+
+            // When, started one after the other as GraphQLHandler does: the countries are read on the fetcher executor
+            CompletableFuture<ExecutionResult> spain = windowed.executeAsync(query,
+                    Map.of("country", "Spain"), null, null, Set.of(), dataLoaderRegistry);
+            CompletableFuture<ExecutionResult> france = windowed.executeAsync(query,
+                    Map.of("country", "France"), null, null, Set.of(), dataLoaderRegistry);
+            ExecutionResult result = france.join();
+
+            // Then the provinces of both capitals are loaded by the shared Province DataLoader, in one batch or two
+            assertThat(spain.join().getErrors()).isEmpty();
+            assertThat(result.getErrors()).isEmpty();
+            Map<String, Map<String, Long>> usage = (Map<String, Map<String, Long>>) result.getExtensions().get("dataLoaderUsage");
+            assertThat(usage.get("Province")).containsEntry("batchedKeys", 2L);
+            assertThat(usage.get("Province").get("batches")).isBetween(1L, 2L);
+            assertThat(dispatch.operations()).isEqualTo(2);
+            assertThat(dispatch.tuners()).extracting(BatchSizeTuner::name).contains("Province");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void provincesAreUpdatedInOneBatchAndUnknownOnesReported() {
+        // Given the current figures, written back as they are
+        Map<String, Object> madrid = ((List<Map<String, Object>>) runtime.execute(
+                "{ provinces(criteria: { country: \"Spain\" }) { name population area } }")
+                .<Map<String, Object>>getData().get("provinces")).stream()
+                .filter(province -> province.get("name").equals("Madrid")).findFirst().orElseThrow();
+        var mutation = """
+            mutation Census($madridPopulation: Int, $madridArea: Int) {
+                updateProvinces(input: [
+                    { name: "Madrid", population: $madridPopulation, area: $madridArea },
+                    { name: "Atlantis", population: 1 },
+                    { name: "Madrid" }
+                ]) {
+                    name
+                    province { population area }
+                    error
+                }
+            }
+        """;
+
+        // When
+        ExecutionResult result = runtime.execute(mutation,
+                Map.of("madridPopulation", madrid.get("population"), "madridArea", madrid.get("area")), null, Set.of());
+
+        // Then
+        assertThat(result.getErrors()).isEmpty();
+        List<Map<String, Object>> updates = (List<Map<String, Object>>) result.<Map<String, Object>>getData().get("updateProvinces");
+        assertThat(updates).hasSize(3);
+        assertThat(updates.get(0)).containsEntry("name", "Madrid").containsEntry("error", null)
+                .containsEntry("province", Map.of("population", madrid.get("population"), "area", madrid.get("area")));
+        assertThat(updates.get(1)).containsEntry("name", "Atlantis").containsEntry("province", null)
+                .containsEntry("error", "Province 'Atlantis' not found");
+        // a figure left out is left as is
+        assertThat(updates.get(2)).isEqualTo(updates.get(0));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void aFigureGivenAsNullIsClearedByBothMutations() {
+        // Given the current figures of Madrid, written back at the end
+        var read = "{ provinces(criteria: { country: \"Spain\" }) { name population area } }";
+        Map<String, Object> madrid = ((List<Map<String, Object>>) runtime.execute(read)
+                .<Map<String, Object>>getData().get("provinces")).stream()
+                .filter(province -> province.get("name").equals("Madrid")).findFirst().orElseThrow();
+        var restore = "mutation Restore($population: Int, $area: Int) { updateProvince(input: { name: \"Madrid\", population: $population, area: $area }) { name } }";
+
+        try {
+            // When
+            ExecutionResult single = runtime.execute(
+                    "mutation { updateProvince(input: { name: \"Madrid\", area: null }) { population area } }");
+            runtime.execute(restore, Map.of("population", madrid.get("population"), "area", madrid.get("area")), null, Set.of());
+            ExecutionResult batch = runtime.execute(
+                    "mutation { updateProvinces(input: [{ name: \"Madrid\", area: null }]) { province { population area } } }");
+
+            // Then the area is cleared and the population, left out, kept
+            assertThat(single.getErrors()).isEmpty();
+            assertThat(batch.getErrors()).isEmpty();
+            Map<String, Object> cleared = new HashMap<>();
+            cleared.put("population", madrid.get("population"));
+            cleared.put("area", null);
+            assertThat(single.<Map<String, Object>>getData().get("updateProvince")).isEqualTo(cleared);
+            assertThat(((List<Map<String, Object>>) batch.<Map<String, Object>>getData().get("updateProvinces")).getFirst())
+                    .containsEntry("province", cleared);
+        } finally {
+            runtime.execute(restore, Map.of("population", madrid.get("population"), "area", madrid.get("area")), null, Set.of());
+        }
+    }
+
+    @Test
+    void queriesReadFromTheReplicasAndMutationsWriteToThePrimary() throws Exception {
+        // Given a stand-in replica: a second pool on the same database
+        try (ConnectionPool replica = new ConnectionPool(ConnectionPoolConfig.of(
+                "jdbc:postgresql://localhost:5432/mondial",
+                "postgres",
+                "postgres789"
+        )); RoutingDataSource routing = RoutingDataSource.of(connectionPool, Map.of("replica", replica),
+                     RoutingConfig.defaults().withHealthCheckInterval(Duration.ofMinutes(1)))) {
+            var routedRuntime = new GraphQLRuntime(routing, EntityCaches.defaults(), PlaceIndex.of(List.of()),
+                    FetcherExecutor.virtualThreads("test-fetcher", 64), QueryBudget.defaults());
+            var query = "{ countries(criteria: { continent: Europe }) { name provinces { name } } }";
+            var mutation = "mutation { updateProvinces(input: [{ name: \"Atlantis\", population: 1 }]) { error } }";
+            long primaryLeases = connectionPool.leaseCount();
+            long replicaLeases = replica.leaseCount();
+
+            // When
+            ExecutionResult read = routedRuntime.execute(query, null, null, Set.of());
+            long replicaLeasesOfTheRead = replica.leaseCount() - replicaLeases;
+            long primaryLeasesOfTheRead = connectionPool.leaseCount() - primaryLeases;
+            ExecutionResult pinnedRead = routedRuntime.execute(query, null, null,
+                    Map.of(RoutingDataSource.READ_YOUR_WRITES, true), Set.of());
+            long primaryLeasesOfThePinnedRead = connectionPool.leaseCount() - primaryLeases - primaryLeasesOfTheRead;
+            ExecutionResult write = routedRuntime.execute(mutation);
+
+            // Then the root fetcher and the ProvincesOfCountry DataLoader read from the replica...
+            assertThat(read.getErrors()).isEmpty();
+            assertThat(replicaLeasesOfTheRead).isEqualTo(2);
+            assertThat(primaryLeasesOfTheRead).isZero();
+            // ...unless the request asks to read its writes, and the mutation writes to the primary
+            assertThat(pinnedRead.getErrors()).isEmpty();
+            assertThat(pinnedRead.<Object>getData()).isEqualTo(read.getData());
+            assertThat(primaryLeasesOfThePinnedRead).isEqualTo(2);
+            assertThat(write.getErrors()).isEmpty();
+            assertThat(replica.leaseCount() - replicaLeases).isEqualTo(2);
+            assertThat(connectionPool.leaseCount() - primaryLeases).isEqualTo(3);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.francd.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoundedCacheTest {
+
+    @Test
+    void aSegmentedCacheStaysUnderItsMaxEntries() {
+        // Given a cache big enough to be split in segments
+        BoundedCache<Integer, String> cache = new BoundedCache<>(1_000);
+
+        // When
+        for (int i = 0; i < 5_000; i++) {
+            cache.put(i, "value " + i);
+        }
+
+        // Then the most recent entries are there, and the evictions made room for them
+        assertThat(cache.size()).isLessThanOrEqualTo(1_000).isGreaterThan(900);
+        assertThat(cache.get(4_999)).isEqualTo("value 4999");
+        assertThat(cache.evictions()).isEqualTo(5_000 - cache.size());
+    }
+}
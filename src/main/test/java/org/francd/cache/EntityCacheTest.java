@@ -0,0 +1,106 @@
+package org.francd.cache;
+
+import org.dataloader.CacheMap;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EntityCacheTest {
+
+    private final EntityCache<String, String> cache =
+            new EntityCache<>("test", 2, Duration.ofMinutes(1), Duration.ofMinutes(1), 100);
+
+    @Test
+    void completedLoadsAreSharedWithTheNextRequest() {
+        // Given
+        CacheMap<String, String> firstRequest = cache.newRequestCacheMap();
+        firstRequest.set("Paris", CompletableFuture.completedFuture("Paris, France"));
+
+        // When
+        CacheMap<String, String> secondRequest = cache.newRequestCacheMap();
+
+        // Then
+        assertThat(secondRequest.containsKey("Paris")).isTrue();
+        assertThat(secondRequest.get("Paris")).isCompletedWithValue("Paris, France");
+    }
+
+    @Test
+    void pendingAndFailedLoadsStayInTheirRequest() {
+        // Given
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CacheMap<String, String> firstRequest = cache.newRequestCacheMap();
+        firstRequest.set("Paris", pending);
+
+        // When
+        pending.completeExceptionally(new RuntimeException("DB down"));
+
+        // Then
+        assertThat(firstRequest.containsKey("Paris")).isTrue();
+        assertThat(cache.newRequestCacheMap().containsKey("Paris")).isFalse();
+    }
+
+    @Test
+    void missingKeysAreCachedToo() {
+        // Given
+        cache.newRequestCacheMap().set("Atlantis", CompletableFuture.completedFuture(null));
+
+        // When
+        CacheMap<String, String> nextRequest = cache.newRequestCacheMap();
+
+        // Then
+        assertThat(nextRequest.containsKey("Atlantis")).isTrue();
+        assertThat(nextRequest.get("Atlantis")).isCompletedWithValue(null);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        // Given
+        cache.put("Paris", "Paris, France");
+        cache.put("Madrid", "Madrid, Spain");
+        cache.newRequestCacheMap().containsKey("Paris");
+
+        // When
+        cache.put("Bern", "Bern, Switzerland");
+
+        // Then
+        assertThat(cache.evictions()).isEqualTo(1);
+        assertThat(cache.newRequestCacheMap().containsKey("Madrid")).isFalse();
+        assertThat(cache.newRequestCacheMap().containsKey("Paris")).isTrue();
+        assertThat(cache.estimatedBytes()).isEqualTo(200);
+    }
+
+    @Test
+    void aLoadCompletingAfterAnInvalidationIsNotShared() {
+        // Given a load started before the row was updated
+        CompletableFuture<String> staleLoad = new CompletableFuture<>();
+        cache.newRequestCacheMap().set("Paris", staleLoad);
+        cache.invalidate("Paris");
+
+        // When
+        staleLoad.complete("Paris, old figures");
+
+        // Then
+        assertThat(cache.newRequestCacheMap().containsKey("Paris")).isFalse();
+    }
+
+    @Test
+    void aLoadCompletingAfterAWriteThroughKeepsTheWrittenValue() {
+        // Given
+        CompletableFuture<String> staleLoad = new CompletableFuture<>();
+        CacheMap<String, String> loadingRequest = cache.newRequestCacheMap();
+        loadingRequest.set("Paris", staleLoad);
+        cache.put("Paris", "Paris, new figures");
+
+        // When
+        staleLoad.complete("Paris, old figures");
+
+        // Then the request that loaded it still sees its own value, the next ones the written one
+        assertThat(loadingRequest.get("Paris")).isCompletedWithValue("Paris, old figures");
+        CacheMap<String, String> nextRequest = cache.newRequestCacheMap();
+        assertThat(nextRequest.containsKey("Paris")).isTrue();
+        assertThat(nextRequest.get("Paris")).isCompletedWithValue("Paris, new figures");
+    }
+}
@@ -0,0 +1,44 @@
+package org.francd.db;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProjectionTest {
+
+    @Test
+    void keyColumnsAreAlwaysSelected() {
+        // When
+        String columns = Projection.COUNTRY.columns("c", 0);
+
+        // Then
+        assertThat(columns).isEqualTo("c.code, c.name");
+    }
+
+    @Test
+    void aFieldSelectsAllItsColumns() {
+        // Given
+        int projection = Projection.CITY.bit("geoLocation") | Projection.CITY.bit("province");
+
+        // When
+        String columns = Projection.CITY.columns(null, projection);
+
+        // Then
+        assertThat(columns).isEqualTo("name, latitude, longitude, province");
+        assertThat(Projection.CITY.selects(projection, "longitude")).isTrue();
+        assertThat(Projection.CITY.selects(projection, "elevation")).isFalse();
+        assertThat(Projection.CITY.columns(null, Projection.CITY.all()))
+                .isEqualTo("name, elevation, latitude, longitude, population, province");
+    }
+
+    @Test
+    void anyFieldBeyondTheKeysSelectsTheWholeRow() {
+        // When
+        int keysOnly = Projection.PROVINCE.keysOrAll(0);
+        int wholeRow = Projection.PROVINCE.keysOrAll(Projection.PROVINCE.bit("area"));
+
+        // Then
+        assertThat(Projection.PROVINCE.columns(null, keysOnly)).isEqualTo("name");
+        assertThat(wholeRow).isEqualTo(Projection.PROVINCE.all());
+    }
+}
@@ -0,0 +1,32 @@
+package org.francd.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlShapeCacheTest {
+
+    @Test
+    void sqlIsBuiltOncePerShape() {
+        // Given
+        AtomicInteger builds = new AtomicInteger();
+        SqlShapeCache cache = SqlShapeCache.of("test", 2, shape -> {
+            builds.incrementAndGet();
+            return "SELECT " + shape;
+        });
+
+        // When
+        String first = cache.sqlFor(3);
+        String second = cache.sqlFor(3);
+        String other = cache.sqlFor(1);
+
+        // Then
+        assertThat(second).isSameAs(first);
+        assertThat(other).isEqualTo("SELECT 1");
+        assertThat(builds).hasValue(2);
+        assertThat(cache.hits()).isEqualTo(1);
+        assertThat(cache.misses()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,70 @@
+package org.francd.db.pool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConnectionPoolTest {
+
+    private final ConnectionPool pool;
+
+    ConnectionPoolTest() throws SQLException {
+        pool = new ConnectionPool(ConnectionPoolConfig.of(
+                "jdbc:postgresql://localhost:5432/mondial",
+                "postgres",
+                "postgres789"
+        ).withSize(1, 2).withLeaseTimeout(Duration.ofMillis(200))
+                .withLeakDetectionThreshold(Duration.ofSeconds(20)));
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void closedLeaseGoesBackToThePool() throws SQLException {
+        // Given
+        Connection first = pool.getConnection();
+
+        // When
+        first.close();
+        Connection second = pool.getConnection();
+
+        // Then
+        assertThat(first.isClosed()).isTrue();
+        assertThat(second.isValid(1)).isTrue();
+        assertThat(pool.totalConnections()).isEqualTo(1);
+        second.close();
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    void leaseTimesOutWhenPoolIsExhausted() throws SQLException {
+        // Given
+        try (Connection ignored1 = pool.getConnection(); Connection ignored2 = pool.getConnection()) {
+
+            // When / Then
+            assertThatThrownBy(pool::getConnection).isInstanceOf(SQLTimeoutException.class);
+            assertThat(pool.leaseTimeouts()).isEqualTo(1);
+        }
+        assertThat(pool.activeConnections()).isZero();
+    }
+
+    @Test
+    void returnedLeaseCannotBeUsedAnymore() throws SQLException {
+        // Given
+        Connection connection = pool.getConnection();
+        connection.close();
+
+        // When / Then
+        assertThatThrownBy(connection::createStatement).isInstanceOf(SQLException.class);
+    }
+}
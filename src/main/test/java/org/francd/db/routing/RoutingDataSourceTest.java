@@ -0,0 +1,140 @@
+package org.francd.db.routing;
+
+import org.francd.db.pool.ConnectionPool;
+import org.francd.db.pool.ConnectionPoolConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class RoutingDataSourceTest {
+
+    // checked by hand in the tests
+    private static final RoutingConfig CONFIG = RoutingConfig.defaults().withHealthCheckInterval(Duration.ofMinutes(1));
+
+    private final ConnectionPool primary;
+    // a stand-in for a replica: the same database, not in recovery, so always caught up
+    private final ConnectionPool replica;
+    // nothing listens there
+    private final ConnectionPool unreachableReplica;
+
+    RoutingDataSourceTest() throws SQLException {
+        primary = pool("jdbc:postgresql://localhost:5432/mondial");
+        replica = pool("jdbc:postgresql://localhost:5432/mondial");
+        unreachableReplica = pool("jdbc:postgresql://localhost:1/mondial");
+    }
+
+    private static ConnectionPool pool(String jdbcUrl) throws SQLException {
+        return new ConnectionPool(ConnectionPoolConfig.of(jdbcUrl, "postgres", "postgres789").withSize(0, 2));
+    }
+
+    @AfterEach
+    void closePools() {
+        primary.close();
+        replica.close();
+        unreachableReplica.close();
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    void readsGoToTheHealthyReplicasAndTheRestToThePrimary() throws SQLException {
+        // Given
+        try (RoutingDataSource routing = RoutingDataSource.of(primary,
+                Map.of("replica", replica, "unreachable", unreachableReplica), CONFIG)) {
+
+            // When
+            for (int i = 0; i < 4; i++) {
+                try (Connection ignored = routing.reads().getConnection()) {
+                    // read
+                }
+            }
+            try (Connection ignored = routing.getConnection()) {
+                // write
+            }
+
+            // Then
+            assertThat(routing.replicas()).extracting(RoutingDataSource.Replica::name, RoutingDataSource.Replica::healthy)
+                    .containsExactlyInAnyOrder(
+                            tuple("replica", true),
+                            tuple("unreachable", false));
+            assertThat(routing.replicas()).filteredOn(RoutingDataSource.Replica::healthy)
+                    .singleElement().satisfies(healthy -> {
+                        assertThat(healthy.lagMillis()).isZero();
+                        assertThat(healthy.reads()).isEqualTo(4);
+                    });
+            assertThat(routing.primaryReads()).isZero();
+            assertThat(primary.leaseCount()).isEqualTo(1);
+        }
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    void readsFallBackToThePrimaryWithoutAHealthyReplica() throws SQLException {
+        // Given a replica down, and one too far behind
+        try (RoutingDataSource routing = RoutingDataSource.of(primary, Map.of("unreachable", unreachableReplica), CONFIG);
+             RoutingDataSource lagging = RoutingDataSource.of(primary, Map.of("replica", replica), CONFIG)) {
+            lagging.replicas().getFirst().checked(10_000, CONFIG.maxReplicationLag().toMillis());
+
+            // When
+            try (Connection ignored = routing.reads().getConnection();
+                 Connection ignoredToo = lagging.reads().getConnection()) {
+
+                // Then
+                assertThat(routing.replicas().getFirst().healthy()).isFalse();
+                assertThat(routing.replicas().getFirst().failures()).isEqualTo(1);
+                assertThat(lagging.replicas().getFirst().healthy()).isFalse();
+                assertThat(routing.primaryReads()).isEqualTo(1);
+                assertThat(lagging.primaryReads()).isEqualTo(1);
+                assertThat(primary.activeConnections()).isEqualTo(2);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    void aReadDoesNotWaitForTheLeaseTimeoutOfABusyReplica() throws SQLException {
+        // Given a healthy replica with its two connections taken
+        try (RoutingDataSource routing = RoutingDataSource.of(primary, Map.of("replica", replica), CONFIG);
+             Connection ignored = replica.getConnection();
+             Connection ignoredToo = replica.getConnection()) {
+
+            // When
+            long start = System.nanoTime();
+            try (Connection ignoredRead = routing.reads().getConnection()) {
+                long waitedMillis = (System.nanoTime() - start) / 1_000_000;
+
+                // Then it goes to the primary after a moment, not after the lease timeout of the pool (5 s), and the replica stays in
+                assertThat(waitedMillis).isLessThan(1_000);
+                assertThat(routing.primaryReads()).isEqualTo(1);
+                assertThat(routing.replicas().getFirst().healthy()).isTrue();
+                assertThat(routing.replicas().getFirst().failures()).isZero();
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    void aBusyReplicaKeepsItsStateThroughACheck() throws SQLException {
+        // Given a healthy replica with its two connections taken
+        try (RoutingDataSource routing = RoutingDataSource.of(primary, Map.of("replica", replica), CONFIG);
+             Connection ignored = replica.getConnection();
+             Connection ignoredToo = replica.getConnection()) {
+
+            // When
+            long start = System.nanoTime();
+            routing.checkReplicas();
+            long checkMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Then the check gives up after its own timeout (1 s), not the lease timeout of the pool (5 s)
+            assertThat(checkMillis).isLessThan(3_000);
+            assertThat(routing.replicas().getFirst().healthy()).isTrue();
+            assertThat(routing.replicas().getFirst().failures()).isZero();
+        }
+    }
+}
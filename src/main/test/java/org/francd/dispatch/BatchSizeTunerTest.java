@@ -0,0 +1,44 @@
+package org.francd.dispatch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchSizeTunerTest {
+
+    @Test
+    void batchSizeGoesWhereTheKeysCostAsMuchAsTheRoundTrip() {
+        // Given 2 ms per batch and 20 µs per key: past 100 keys two batches in parallel are done sooner
+        BatchSizeTuner tuner = new BatchSizeTuner("City", 10, 500, true);
+
+        // When
+        for (int i = 0; i < 200; i++) {
+            int keys = 10 + i % 40;
+            tuner.record(keys, (2_000 + 20L * keys) * 1_000);
+        }
+
+        // Then
+        assertThat(tuner.batchSize()).isBetween(99, 101);
+        assertThat(tuner.batches()).isEqualTo(200);
+        assertThat(tuner.keys()).isEqualTo(200 * 10 + 5 * (39 * 40 / 2));
+    }
+
+    @Test
+    void batchSizeGrowsUpToTheMaxWhenTheKeysCostNothing() {
+        // Given
+        BatchSizeTuner tuned = new BatchSizeTuner("Province", 10, 400, true);
+        BatchSizeTuner fixed = new BatchSizeTuner("Province", 10, 50, false);
+        tuned.record(10, 1_000_000);
+
+        // When
+        for (int i = 0; i < 200; i++) {
+            int keys = 10 + i % 40;
+            tuned.record(keys, 1_000_000);
+            fixed.record(keys, 1_000_000);
+        }
+
+        // Then
+        assertThat(tuned.batchSize()).isEqualTo(400);
+        assertThat(fixed.batchSize()).isEqualTo(50);
+    }
+}
@@ -0,0 +1,46 @@
+package org.francd.dispatch;
+
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataLoaderDispatchTest {
+
+    @Test
+    void keysQueuedWithinTheWindowGoInOneBatch() throws Exception {
+        // Given a clock of our own: the window only passes when the test says so
+        AtomicLong now = new AtomicLong();
+        try (DataLoaderDispatch dispatch = new DataLoaderDispatch(
+                DispatchConfig.defaults().withBatchWindow(Duration.ofMillis(20)), now::get)) {
+            DataLoaderRegistry registry = dispatch.newRegistry()
+                    .register("Province", (List<String> keys) -> CompletableFuture.completedFuture(keys))
+                    .build();
+            DataLoader<String, String> provinces = registry.getDataLoader("Province");
+
+            // When a first key is dispatched, then a second one is queued before the window has passed
+            CompletableFuture<String> madrid = provinces.load("Madrid");
+            registry.dispatchAll();
+            now.addAndGet(Duration.ofMillis(10).toNanos());
+            CompletableFuture<String> bretagne = provinces.load("Bretagne");
+            registry.dispatchAll();
+            boolean dispatchedEarly = madrid.isDone() || bretagne.isDone();
+            now.addAndGet(Duration.ofMillis(10).toNanos());
+
+            // Then both go in one batch, once the window has passed
+            assertThat(dispatchedEarly).isFalse();
+            assertThat(bretagne.get(5, TimeUnit.SECONDS)).isEqualTo("Bretagne");
+            assertThat(madrid.get(5, TimeUnit.SECONDS)).isEqualTo("Madrid");
+            assertThat(provinces.getStatistics().getBatchInvokeCount()).isEqualTo(1);
+            assertThat(provinces.getStatistics().getBatchLoadCount()).isEqualTo(2);
+            assertThat(dispatch.tuners()).extracting(BatchSizeTuner::name).containsExactly("Province");
+        }
+    }
+}
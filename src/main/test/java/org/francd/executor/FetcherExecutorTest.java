@@ -0,0 +1,83 @@
+package org.francd.executor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FetcherExecutorTest {
+
+    @Test
+    void runsTasksOnVirtualThreads() throws Exception {
+        // Given
+        try (FetcherExecutor executor = FetcherExecutor.virtualThreads("test", 4)) {
+
+            // When
+            boolean virtual = CompletableFuture.supplyAsync(() -> Thread.currentThread().isVirtual(), executor)
+                    .get(5, TimeUnit.SECONDS);
+
+            // Then
+            assertThat(virtual).isTrue();
+        }
+    }
+
+    @Test
+    void rejectsTasksBeyondTheLimit() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        try (FetcherExecutor executor = FetcherExecutor.bounded("test", 1, 1)) {
+            executor.execute(() -> await(release));
+            executor.execute(() -> await(release));
+
+            // When / Then
+            assertThatThrownBy(() -> executor.execute(() -> {}))
+                    .isInstanceOf(RejectedExecutionException.class);
+            assertThat(executor.rejected()).isEqualTo(1);
+            assertThat(executor.saturation()).isEqualTo(1.0);
+
+            release.countDown();
+        }
+    }
+
+    @Test
+    void closeLetsTheRunningTasksFinish() {
+        // Given
+        CountDownLatch started = new CountDownLatch(1);
+        FetcherExecutor executor = FetcherExecutor.virtualThreads("test", 1);
+        executor.execute(() -> {
+            started.countDown();
+            sleep(100);
+        });
+        await(started);
+
+        // When
+        executor.close();
+
+        // Then
+        assertThat(executor.completed()).isEqualTo(1);
+        assertThat(executor.inFlight()).isZero();
+        assertThatThrownBy(() -> executor.execute(() -> {}))
+                .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
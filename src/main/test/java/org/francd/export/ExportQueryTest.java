@@ -0,0 +1,42 @@
+package org.francd.export;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExportQueryTest {
+
+    @Test
+    void theSelectionGivesTheColumns() {
+        // When
+        ExportQuery query = ExportQuery.of("city", "name geoLocation { latitude longitude } province { name } latitude", null);
+
+        // Then
+        assertThat(query.sql()).isEqualTo("SELECT name, latitude, longitude, province FROM city");
+        assertThat(query.likePattern()).isNull();
+    }
+
+    @Test
+    void theNamePatternIsMatchedLiterallyExceptTheStars() {
+        // When
+        ExportQuery query = ExportQuery.of("province", "name capital { name }", "Ma*_%*");
+
+        // Then
+        assertThat(query.sql()).isEqualTo("SELECT name, capital FROM province WHERE name LIKE ?");
+        assertThat(query.likePattern()).isEqualTo("Ma%\\_\\%%");
+    }
+
+    @Test
+    void onlyWhatARowHoldsCanBeExported() {
+        assertThatThrownBy(() -> ExportQuery.of("city", "name province { population }", null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("city.province.population cannot be exported");
+        assertThatThrownBy(() -> ExportQuery.of("city", "geoLocation", null))
+                .hasMessage("city.geoLocation needs a sub-selection");
+        assertThatThrownBy(() -> ExportQuery.of("country", "name", null))
+                .hasMessage("Unknown export: country");
+        assertThatThrownBy(() -> ExportQuery.of("city", "name {", null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
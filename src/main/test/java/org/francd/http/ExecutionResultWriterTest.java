@@ -0,0 +1,72 @@
+package org.francd.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.ResultPath;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExecutionResultWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutionResultWriter writer = new ExecutionResultWriter(mapper);
+
+    @Test
+    void writesTheSameJsonAsTheSpecificationMap() throws Exception {
+        // Given
+        Map<String, Object> capital = new LinkedHashMap<>();
+        capital.put("name", "Île-de-France");
+        capital.put("population", 12082144);
+        capital.put("area", new BigDecimal("12011.5"));
+        capital.put("province", null);
+        Map<String, Object> country = new LinkedHashMap<>();
+        country.put("name", "France");
+        country.put("population", 64300821L);
+        country.put("capital", capital);
+        country.put("provinces", Arrays.asList(capital, null));
+        ExecutionResult result = ExecutionResultImpl.newExecutionResult()
+                .data(Map.of("countries", List.of(country)))
+                .addError(GraphqlErrorBuilder.newError()
+                        .message("Boom")
+                        .path(ResultPath.parse("/countries[0]/capital/province"))
+                        .build())
+                .addExtension("cost", 42)
+                .build();
+
+        // When
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(result, out);
+
+        // Then
+        assertThat(out.toString(StandardCharsets.UTF_8))
+                .isEqualTo(mapper.writeValueAsString(result.toSpecification()));
+    }
+
+    @Test
+    void omitsDataWhenTheRequestWasNotExecuted() throws Exception {
+        // Given
+        ExecutionResult result = ExecutionResultImpl.newExecutionResult()
+                .addError(GraphqlErrorBuilder.newError().message("Invalid syntax").build())
+                .build();
+
+        // When
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(result, out);
+
+        // Then
+        assertThat(out.toString(StandardCharsets.UTF_8))
+                .isEqualTo(mapper.writeValueAsString(result.toSpecification()))
+                .doesNotContain("\"data\"");
+    }
+}
@@ -0,0 +1,106 @@
+package org.francd.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.util.Fields;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GraphQLRequestDecoderTest {
+
+    private final GraphQLRequestDecoder decoder = new GraphQLRequestDecoder(new ObjectMapper(), 1024);
+
+    @Test
+    void readsTheRequestFields() throws IOException {
+        // Given
+        byte[] body = """
+                {
+                    "operationName": "Countries",
+                    "query": "query Countries($continent: Continent) { countries(criteria: {continent: $continent}) { name } }",
+                    "variables": {"continent": "Europe", "range": {"above": 1000}},
+                    "extensions": {"persistedQuery": {"version": 1, "sha256Hash": "abc"}},
+                    "unknown": [1, {"a": 2}]
+                }
+                """.getBytes(StandardCharsets.UTF_8);
+
+        // When
+        GraphQLRequest request = decoder.parseBatch(body, 0, body.length).requests().getFirst();
+
+        // Then
+        assertThat(request.operationName()).isEqualTo("Countries");
+        assertThat(request.query()).startsWith("query Countries($continent: Continent)");
+        assertThat(request.variables()).containsEntry("continent", "Europe")
+                .containsEntry("range", Map.of("above", 1000));
+        assertThat(request.extensions()).containsKey("persistedQuery");
+    }
+
+    @Test
+    void missingAndNullFieldsAreNull() throws IOException {
+        // Given
+        byte[] body = """
+                xx{"query": "{ countries { name } }", "variables": null}yy
+                """.getBytes(StandardCharsets.UTF_8);
+
+        // When
+        GraphQLRequest request = decoder.parseBatch(body, 2, body.length - 5).requests().getFirst();
+
+        // Then
+        assertThat(request).isEqualTo(new GraphQLRequest("{ countries { name } }", null, null, null));
+    }
+
+    @Test
+    void rejectsABodyThatIsNotAnObject() {
+        // Given
+        byte[] body = "[1, 2]".getBytes(StandardCharsets.UTF_8);
+
+        // When / Then
+        assertThatThrownBy(() -> decoder.parseBatch(body, 0, body.length)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void anArrayOfRequestsIsABatch() throws IOException {
+        // Given
+        byte[] body = """
+                [{"query": "{ countries { name } }"}, {"query": "{ city(name: $name) { name } }", "variables": {"name": "Brest"}}]
+                """.getBytes(StandardCharsets.UTF_8);
+        byte[] single = """
+                {"query": "{ countries { name } }"}
+                """.getBytes(StandardCharsets.UTF_8);
+
+        // When
+        GraphQLBatch batch = decoder.parseBatch(body, 0, body.length);
+
+        // Then
+        assertThat(batch.batched()).isTrue();
+        assertThat(batch.requests()).extracting(GraphQLRequest::query)
+                .containsExactly("{ countries { name } }", "{ city(name: $name) { name } }");
+        assertThat(batch.requests().get(1).variables()).containsEntry("name", "Brest");
+        assertThat(decoder.parseBatch(single, 0, single.length))
+                .isEqualTo(GraphQLBatch.single(new GraphQLRequest("{ countries { name } }", null, null, null)));
+        assertThatThrownBy(() -> decoder.parseBatch(new byte[]{'[', ']'}, 0, 2)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void aMutationCannotBeSentWithGet() throws IOException {
+        // Given
+        Fields mutation = new Fields();
+        mutation.add("query", "mutation Grow { updateProvince(input: { name: \"Madrid\", population: 1 }) { name } }");
+        Fields queryAndMutation = new Fields();
+        queryAndMutation.add("query", "query Read { countries { name } } mutation Grow { updateProvince(input: { name: \"Madrid\" }) { name } }");
+        queryAndMutation.add("operationName", "Read");
+
+        // When / Then
+        assertThatThrownBy(() -> decoder.fromQueryParameters(mutation))
+                .isInstanceOf(GraphQLRequestDecoder.MethodNotAllowedException.class)
+                .hasMessage("A mutation must be sent with POST");
+        assertThat(decoder.fromQueryParameters(queryAndMutation).operationName()).isEqualTo("Read");
+        queryAndMutation.put("operationName", "Grow");
+        assertThatThrownBy(() -> decoder.fromQueryParameters(queryAndMutation))
+                .isInstanceOf(GraphQLRequestDecoder.MethodNotAllowedException.class);
+    }
+}
@@ -0,0 +1,71 @@
+package org.francd.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyHistogramTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void percentilesAreWithinTheBucketPrecision() {
+        // Given
+        LatencyHistogram histogram = new LatencyHistogram(6, 10, TimeUnit.SECONDS);
+
+        // When: 1 ms to 100 ms
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(SECOND, i * MILLI);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(SECOND);
+
+        // Then
+        assertThat(snapshot.count()).isEqualTo(100);
+        assertThat(snapshot.max()).isEqualTo(100_000);
+        assertThat(snapshot.p50()).isBetween(50_000L, (long) (50_000 * 1.125));
+        assertThat(snapshot.p95()).isBetween(95_000L, (long) (95_000 * 1.125));
+        assertThat(snapshot.p99()).isBetween(99_000L, 100_000L);
+        assertThat(snapshot.totalMicros()).isEqualTo(5_050_000);
+    }
+
+    @Test
+    void forgetsWhatIsOlderThanTheWindow() {
+        // Given: a window of 3 slices of 10 s
+        LatencyHistogram histogram = new LatencyHistogram(3, 10, TimeUnit.SECONDS);
+        histogram.record(5 * SECOND, 500 * MILLI);
+        histogram.record(15 * SECOND, 2 * MILLI);
+
+        // When
+        LatencyHistogram.Snapshot inWindow = histogram.snapshot(25 * SECOND);
+        LatencyHistogram.Snapshot slowOneExpired = histogram.snapshot(35 * SECOND);
+        histogram.record(45 * SECOND, 1 * MILLI); // reuses the slice of the 2 ms record, 30 s later
+        LatencyHistogram.Snapshot afterReuse = histogram.snapshot(45 * SECOND);
+
+        // Then
+        assertThat(inWindow.count()).isEqualTo(2);
+        assertThat(inWindow.max()).isEqualTo(500_000);
+        assertThat(slowOneExpired.count()).isEqualTo(1);
+        assertThat(slowOneExpired.max()).isEqualTo(2_000);
+        assertThat(afterReuse.count()).isEqualTo(1);
+        assertThat(afterReuse.max()).isEqualTo(1_000);
+        assertThat(afterReuse.totalCount()).isEqualTo(3);
+    }
+
+    @Test
+    void everyValueFallsInABucketThatHoldsIt() {
+        for (long micros : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1_000, 123_456, 1L << 30, (1L << 36) - 1}) {
+            // When
+            int bucket = LatencyHistogram.bucketOf(micros);
+
+            // Then
+            assertThat(bucket).isBetween(0, LatencyHistogram.BUCKETS - 1);
+            assertThat(LatencyHistogram.upperBoundOf(bucket)).isGreaterThanOrEqualTo(micros);
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.upperBoundOf(bucket - 1)).isLessThan(micros);
+            }
+        }
+    }
+}
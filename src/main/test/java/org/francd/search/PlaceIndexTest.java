@@ -0,0 +1,79 @@
+package org.francd.search;
+
+import org.francd.model.City;
+import org.francd.model.Country;
+import org.francd.model.Place;
+import org.francd.model.Province;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PlaceIndexTest {
+
+    private final PlaceIndex index = PlaceIndex.of(List.of(
+            new Country("E", "Spain", 46_815_916, 505_990, "Madrid"),
+            new Province("Madrid", 6_466_996, "Madrid", 8_028),
+            new City("Madrid", 3_165_235, null, 667, "Madrid"),
+            new Province("Barcelona", 5_540_925, "Barcelona", 7_726),
+            new City("Barcelona", 1_604_555, null, 12, "Barcelona"),
+            new City("Marbella", 141_463, null, 27, "Malaga"),
+            new City("Rennes", 209_860, null, 40, "Ille-et-Vilaine"),
+            new City("Brest", 139_602, null, 52, "Finistere")));
+
+    @Test
+    void aNameWithoutStarMustBeEqual() {
+        // When
+        List<Place> places = index.search("Madrid");
+
+        // Then
+        assertThat(places).extracting(place -> place.getClass().getSimpleName()).containsExactly("City", "Province");
+        assertThat(index.search("Madri")).isEmpty();
+        assertThat(index.search("madrid")).isEmpty();
+    }
+
+    @Test
+    void aStarMatchesAnySequence() {
+        // Then
+        assertThat(names(index.search("Ma*"))).containsExactly("Madrid", "Madrid", "Marbella");
+        assertThat(names(index.search("*est"))).containsExactly("Brest");
+        assertThat(names(index.search("*rc*"))).containsExactly("Barcelona", "Barcelona");
+        assertThat(names(index.search("*a*e*a"))).containsExactly("Barcelona", "Barcelona", "Marbella");
+        assertThat(names(index.search("B*s*"))).containsExactly("Brest");
+        assertThat(names(index.search("*"))).hasSize(8);
+        // % and _ are no wildcards
+        assertThat(index.search("Ma%")).isEmpty();
+        assertThat(index.search("Bres_")).isEmpty();
+    }
+
+    @Test
+    void anUpdatedProvinceIsFoundWithItsNewFigures() {
+        // Given
+        Province updated = new Province("Madrid", 7_000_000, "Madrid", 8_028);
+
+        // When
+        index.update(updated);
+
+        // Then
+        assertThat(index.search("Madrid")).containsExactly(
+                new City("Madrid", 3_165_235, null, 667, "Madrid"), updated);
+    }
+
+    @Test
+    void aPageStartsAfterTheNameAndTypeOfTheCursor() {
+        // When
+        List<Place> firstPage = index.search("*a*", null, null, 2);
+        List<Place> secondPage = index.search("*a*", "Madrid", "City", 2);
+
+        // Then
+        assertThat(firstPage).extracting(PlaceIndex::typeOf).containsExactly("City", "Province");
+        assertThat(names(firstPage)).containsExactly("Barcelona", "Barcelona");
+        assertThat(secondPage).extracting(PlaceIndex::typeOf).containsExactly("Province", "City");
+        assertThat(names(secondPage)).containsExactly("Madrid", "Marbella");
+    }
+
+    private static List<String> names(List<Place> places) {
+        return places.stream().map(Place::name).toList();
+    }
+}